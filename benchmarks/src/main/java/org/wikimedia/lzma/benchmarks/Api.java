@@ -0,0 +1,16 @@
+package org.wikimedia.lzma.benchmarks;
+
+/**
+ * The codec APIs to benchmark.
+ * 
+ * @author Eric Evans
+ *
+ */
+public enum Api {
+    /** Single call, stateless buffer API ({@link org.wikimedia.lzma.Lzma}) */
+    ONESHOT,
+    /** Streaming {@link org.wikimedia.lzma.Encoder}/{@link org.wikimedia.lzma.Decoder}, byte arrays */
+    STREAMING,
+    /** Streaming {@link org.wikimedia.lzma.Encoder}/{@link org.wikimedia.lzma.Decoder}, direct buffers */
+    DIRECT;
+}
@@ -0,0 +1,31 @@
+package org.wikimedia.lzma.benchmarks;
+
+import org.wikimedia.lzma.FilterChain;
+import org.wikimedia.lzma.Options;
+
+/**
+ * Filter chains to benchmark, each ending in LZMA2.
+ * 
+ * @author Eric Evans
+ *
+ */
+public enum Chain {
+    /** LZMA2 alone */
+    LZMA2,
+    /** x86 BCJ, followed by LZMA2 (the {@link org.wikimedia.lzma.Encoder} default) */
+    X86,
+    /** Delta (distance 1), followed by LZMA2 */
+    DELTA;
+
+    public FilterChain build(Options options) {
+        switch (this) {
+        case X86:
+            return FilterChain.builder().x86().lzma2(options).build();
+        case DELTA:
+            return FilterChain.builder().delta(1).lzma2(options).build();
+        default:
+            return FilterChain.builder().lzma2(options).build();
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.wikimedia.lzma.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wikimedia.lzma.Check;
+import org.wikimedia.lzma.FilterChain;
+import org.wikimedia.lzma.Options;
+
+/**
+ * Parameters and setup common to the encode and decode benchmarks. Every combination of
+ * parameters is run by default, which takes a long time; Narrow the space with {@code -p}, e.g.
+ * {@code -p preset=1,6,9e -p corpus=BARACK_OBAMA_HTML -p api=DIRECT}.
+ * 
+ * <p>
+ * Codecs are per benchmark thread, so {@code -t} measures independent, concurrent codecs, while
+ * {@code -p threads=N} measures a single codec using liblzma's multithreading.
+ * </p>
+ * 
+ * @author Eric Evans
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class CodecBenchmark {
+
+    static final Check CHECK = Check.CRC64;
+
+    /** Preset level; An "e" suffix selects the extreme variant */
+    @Param({ "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "0e", "1e", "2e", "3e", "4e", "5e", "6e", "7e", "8e", "9e" })
+    public String preset;
+
+    /** Input data (all by default) */
+    @Param
+    public Corpus corpus;
+
+    /** Filter chain (LZMA2, X86, or DELTA) */
+    @Param({ "LZMA2" })
+    public Chain chain;
+
+    /** Size of the codec's internal buffers, and of the chunks streamed through them */
+    @Param({ "65536" })
+    public int bufferSize;
+
+    /** liblzma worker threads per codec (1 for single-threaded) */
+    @Param({ "1" })
+    public int threads;
+
+    /** API (all by default) */
+    @Param
+    public Api api;
+
+    protected byte[] input;
+    protected FilterChain filters;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.input = this.corpus.load();
+        this.filters = this.chain.build(options(this.preset));
+        setUpCodec();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tearDownCodec();
+    }
+
+    protected abstract void setUpCodec() throws IOException;
+
+    protected abstract void tearDownCodec();
+
+    static Options options(String preset) {
+        boolean extreme = preset.endsWith("e");
+        int level = Integer.parseInt(extreme ? preset.substring(0, preset.length() - 1) : preset);
+        return Options.fromPreset(level, extreme);
+    }
+
+}
@@ -0,0 +1,299 @@
+package org.wikimedia.lzma.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tukaani.xz.ArrayCache;
+import org.tukaani.xz.BasicArrayCache;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.UnsupportedOptionsException;
+import org.tukaani.xz.XZ;
+import org.tukaani.xz.XZInputStream;
+import org.tukaani.xz.XZOutputStream;
+import org.wikimedia.lzma.Check;
+import org.wikimedia.lzma.Decoder;
+import org.wikimedia.lzma.Encoder;
+import org.wikimedia.lzma.FilterChain;
+import org.wikimedia.lzma.Lzma;
+
+import com.google.common.primitives.UnsignedLong;
+
+/**
+ * Compares this binding against pure-Java XZ (org.tukaani.xz), and the JDK's Deflater/Inflater,
+ * on the same input. Throughput is reported in ops/&mu;s (multiply by {@code size} for MB/s), and
+ * latency percentiles by the sample time mode. The compression ratio and memory use (heap, NIO
+ * buffers, and process resident set) of each trial are printed at its end; Heap allocation per
+ * operation is reported with {@code -prof gc}, and the native memory of liblzma and JNA shows as
+ * the difference in resident set between codecs.
+ * 
+ * <p>
+ * Inputs of {@code size} bytes are taken from the start of the corpus (repeating it as needed), so
+ * that results across sizes show where the fixed per-call cost of the JNA binding is amortized;
+ * {@link Crossover} runs the comparison and reports that size.
+ * </p>
+ * 
+ * @author Eric Evans
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompareBenchmark {
+
+    public static enum Codec {
+        /** This binding, streaming {@link Encoder}/{@link Decoder} */
+        LIBLZMA,
+        /** This binding, one-shot {@link Lzma} */
+        LIBLZMA_ONESHOT,
+        /** Pure-Java XZ (org.tukaani.xz) */
+        XZ_JAVA,
+        /** The JDK's zlib Deflater/Inflater (level is the preset, at least 1) */
+        DEFLATE;
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Param
+    public Codec codec;
+
+    @Param({ "1", "6" })
+    public int preset;
+
+    @Param({ "BARACK_OBAMA_HTML" })
+    public Corpus corpus;
+
+    @Param({ "256", "1024", "4096", "16384", "65536", "262144", "1048576" })
+    public int size;
+
+    private byte[] input;
+    private byte[] output;
+    private byte[] compressed;
+    private int compressedSize;
+    private byte[] result;
+
+    private FilterChain filters;
+    private Encoder encoder;
+    private Decoder decoder;
+    private LZMA2Options xzOptions;
+    private ArrayCache xzCache;
+    private ArrayOutputStream xzOutput;
+    private Deflater deflater;
+    private Inflater inflater;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.input = fill(this.corpus.load(), this.size);
+        this.output = new byte[(int) Lzma.maxCompressedSize(this.size) + this.size / 1000 + 64];
+        this.result = new byte[this.size + 1];
+
+        switch (this.codec) {
+        case LIBLZMA:
+        case LIBLZMA_ONESHOT:
+            this.filters = FilterChain.lzma2(this.preset);
+            this.encoder = new Encoder(this.filters, Check.CRC64, BUFFER_SIZE);
+            this.decoder = new Decoder(UnsignedLong.MAX_VALUE, EnumSet.of(Decoder.Flags.NONE), BUFFER_SIZE);
+            break;
+        case XZ_JAVA:
+            this.xzOptions = xzOptions(this.preset);
+            this.xzCache = new BasicArrayCache();
+            this.xzOutput = new ArrayOutputStream(this.output);
+            break;
+        case DEFLATE:
+            this.deflater = new Deflater(Math.max(1, this.preset));
+            this.inflater = new Inflater();
+            break;
+        }
+
+        this.compressedSize = compress();
+        this.compressed = new byte[this.compressedSize];
+        System.arraycopy(this.output, 0, this.compressed, 0, this.compressedSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long direct = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            direct += pool.getMemoryUsed();
+        }
+        long resident = residentSetSize();
+        System.out.printf(
+                "%n# %s, preset %d, %d bytes: compressed to %d, ratio %.3f; heap used %.1f MB, "
+                        + "NIO buffers %.1f MB, process resident %s%n",
+                this.codec,
+                this.preset,
+                this.size,
+                this.compressedSize,
+                (double) this.size / this.compressedSize,
+                heap.getUsed() / 1e6,
+                direct / 1e6,
+                resident < 0 ? "unavailable" : String.format("%.1f MB", resident / 1e6));
+
+        if (this.encoder != null) {
+            this.encoder.end();
+            this.decoder.end();
+        }
+        if (this.deflater != null) {
+            this.deflater.end();
+            this.inflater.end();
+        }
+    }
+
+    @Benchmark
+    public int compress() throws IOException {
+        switch (this.codec) {
+        case LIBLZMA:
+            return Streaming.encode(this.encoder, this.input, this.input.length, this.output, BUFFER_SIZE);
+        case LIBLZMA_ONESHOT:
+            return Lzma.compress(this.input, 0, this.input.length, this.output, 0, this.output.length, this.filters, Check.CRC64);
+        case XZ_JAVA:
+            this.xzOutput.reset();
+            try (XZOutputStream out = new XZOutputStream(this.xzOutput, this.xzOptions, XZ.CHECK_CRC64, this.xzCache)) {
+                out.write(this.input);
+            }
+            return this.xzOutput.size();
+        default:
+            this.deflater.reset();
+            this.deflater.setInput(this.input);
+            this.deflater.finish();
+            int written = 0;
+            while (!this.deflater.finished()) {
+                written += this.deflater.deflate(this.output, written, this.output.length - written);
+            }
+            return written;
+        }
+    }
+
+    @Benchmark
+    public int decompress() throws IOException {
+        switch (this.codec) {
+        case LIBLZMA:
+            return Streaming.decode(this.decoder, this.compressed, this.compressedSize, this.result, BUFFER_SIZE);
+        case LIBLZMA_ONESHOT:
+            return Lzma.decompress(
+                    this.compressed,
+                    0,
+                    this.compressedSize,
+                    this.result,
+                    0,
+                    this.result.length,
+                    UnsignedLong.MAX_VALUE);
+        case XZ_JAVA:
+            try (InputStream in = new XZInputStream(new ByteArrayInputStream(this.compressed), -1, this.xzCache)) {
+                int read = 0;
+                int n;
+                while ((n = in.read(this.result, read, this.result.length - read)) > 0) {
+                    read += n;
+                }
+                return read;
+            }
+        default:
+            this.inflater.reset();
+            this.inflater.setInput(this.compressed);
+            int written = 0;
+            try {
+                while (!this.inflater.finished()) {
+                    written += this.inflater.inflate(this.result, written, this.result.length - written);
+                }
+            }
+            catch (DataFormatException e) {
+                throw new IOException(e);
+            }
+            return written;
+        }
+    }
+
+    /** @return {@code len} bytes of {@code src}, repeated as necessary */
+    static byte[] fill(byte[] src, int len) {
+        byte[] dst = new byte[len];
+        for (int offset = 0; offset < len; offset += src.length) {
+            System.arraycopy(src, 0, dst, offset, Math.min(src.length, len - offset));
+        }
+        return dst;
+    }
+
+    private static LZMA2Options xzOptions(int preset) throws IOException {
+        try {
+            return new LZMA2Options(preset);
+        }
+        catch (UnsupportedOptionsException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** @return the resident set size of this process, or -1 if it cannot be determined */
+    private static long residentSetSize() {
+        Path status = Paths.get("/proc/self/status");
+        try {
+            for (String line : Files.readAllLines(status, StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        }
+        catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return -1;
+    }
+
+    /** An output stream over a fixed, reusable array. */
+    private static class ArrayOutputStream extends OutputStream {
+        private final byte[] buf;
+        private int count;
+
+        private ArrayOutputStream(byte[] buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public void write(int b) {
+            this.buf[this.count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, this.buf, this.count, len);
+            this.count += len;
+        }
+
+        private int size() {
+            return this.count;
+        }
+
+        private void reset() {
+            this.count = 0;
+        }
+    }
+
+}
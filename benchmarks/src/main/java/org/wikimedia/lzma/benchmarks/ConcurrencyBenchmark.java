@@ -0,0 +1,185 @@
+package org.wikimedia.lzma.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wikimedia.lzma.AsyncLzma;
+import org.wikimedia.lzma.Check;
+import org.wikimedia.lzma.CodecPool;
+import org.wikimedia.lzma.FilterChain;
+
+/**
+ * Submits thousands of concurrent small compress requests through {@link AsyncLzma}, on a fixed
+ * pool of platform threads, or a thread per request (virtual or platform), and measures the time
+ * to complete them all. In every case, the {@link CodecPool} caps the coders in use at the number
+ * of processors. At the end of each iteration, the CPU utilisation of the process (CPU time, over
+ * elapsed time times processors) and the peak number of live platform threads are printed: With
+ * virtual threads, requests waiting for a coder park, so that utilisation should match the fixed
+ * pool's, without a platform thread per request.
+ *
+ * <p>
+ * The {@code VIRTUAL} executor requires Java 21 or later, and is skipped with an error otherwise.
+ * </p>
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar ConcurrencyBenchmark -p requests=10000
+ * </pre>
+ *
+ * @author Eric Evans
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrencyBenchmark {
+
+    public static enum Executor {
+        /** A fixed pool of platform threads, one per processor */
+        PLATFORM,
+        /** A platform thread per request */
+        PLATFORM_PER_REQUEST,
+        /** A virtual thread per request */
+        VIRTUAL;
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Param
+    public Executor executor;
+
+    @Param({ "1000", "10000" })
+    public int requests;
+
+    @Param({ "1024" })
+    public int size;
+
+    @Param({ "1" })
+    public int preset;
+
+    @Param({ "BARACK_OBAMA_HTML" })
+    public Corpus corpus;
+
+    private ByteBuffer input;
+    private FilterChain filters;
+    private CodecPool pool;
+    private ExecutorService service;
+    private AsyncLzma lzma;
+
+    private long startCpu;
+    private long startNanos;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.input = ByteBuffer.wrap(CompareBenchmark.fill(this.corpus.load(), this.size));
+        this.filters = FilterChain.lzma2(this.preset);
+        this.pool = new CodecPool(processors, CodecPool.DEFAULT_IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS, BUFFER_SIZE);
+
+        switch (this.executor) {
+        case PLATFORM:
+            this.lzma = new AsyncLzma(processors, this.requests, this.pool);
+            break;
+        case PLATFORM_PER_REQUEST:
+            this.service = Executors.newCachedThreadPool();
+            this.lzma = new AsyncLzma(this.service, this.requests, this.pool);
+            break;
+        case VIRTUAL:
+            this.service = virtualThreadPerTaskExecutor();
+            this.lzma = new AsyncLzma(this.service, this.requests, this.pool);
+            break;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+        this.startCpu = processCpuTime();
+        this.startNanos = System.nanoTime();
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        long elapsed = System.nanoTime() - this.startNanos;
+        long cpu = processCpuTime() - this.startCpu;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf(
+                "%n# %s, %d requests of %d bytes: CPU utilisation %s of %d processors, peak platform threads %d%n",
+                this.executor,
+                this.requests,
+                this.size,
+                this.startCpu < 0 ? "unavailable" : String.format("%.1f%%", 100.0 * cpu / ((double) elapsed * processors)),
+                processors,
+                threads.getPeakThreadCount());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.lzma.close();
+        if (this.service != null) {
+            this.service.shutdown();
+        }
+        this.pool.close();
+    }
+
+    @Benchmark
+    public long compress() {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<ByteBuffer>[] futures = new CompletableFuture[this.requests];
+        for (int i = 0; i < this.requests; i++) {
+            futures[i] = this.lzma.compress(this.input, this.filters, Check.CRC64, 0, TimeUnit.MILLISECONDS);
+        }
+        long compressed = 0;
+        for (CompletableFuture<ByteBuffer> f : futures) {
+            compressed += f.join().remaining();
+        }
+        return compressed;
+    }
+
+    /** Creates a virtual thread per task executor; The method is looked up, as it is new in Java 21. */
+    private static ExecutorService virtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("virtual threads require Java 21 or later", e);
+        }
+        catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** @return the CPU time used by this process, in nanoseconds, or -1 if it cannot be determined */
+    private static long processCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.wikimedia.lzma.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Benchmark inputs: the HTML documents used by the tests, and synthetic data at the extremes of
+ * compressibility.
+ * 
+ * @author Eric Evans
+ *
+ */
+public enum Corpus {
+    /** A small (~50 KB) wiki page */
+    FOOBAR_HTML("foobar.html"),
+    /** A medium (~500 KB) wiki page */
+    SAN_ANTONIO_HTML("san_antonio.html"),
+    /** A large (~1.4 MB) wiki page */
+    BARACK_OBAMA_HTML("barack_obama.html"),
+    /** 1 MiB of (incompressible) pseudo-random bytes */
+    RANDOM(null),
+    /** 1 MiB of zeros */
+    ZEROS(null),
+    /** 1 MiB of pseudo-random words, with a skewed distribution */
+    TEXT(null);
+
+    private static final int SYNTHETIC_SIZE = 1024 * 1024;
+    private static final long SEED = 42;
+
+    private final String resource;
+
+    private Corpus(String resource) {
+        this.resource = resource;
+    }
+
+    /** @return the contents of the corpus (the same on each call) */
+    public byte[] load() throws IOException {
+        switch (this) {
+        case RANDOM:
+            byte[] random = new byte[SYNTHETIC_SIZE];
+            new Random(SEED).nextBytes(random);
+            return random;
+        case ZEROS:
+            return new byte[SYNTHETIC_SIZE];
+        case TEXT:
+            return text();
+        default:
+            try (InputStream in = Corpus.class.getResourceAsStream(String.format("/%s", this.resource))) {
+                return ByteStreams.toByteArray(in);
+            }
+        }
+    }
+
+    private static byte[] text() {
+        Random random = new Random(SEED);
+        String[] vocabulary = new String[4096];
+        for (int i = 0; i < vocabulary.length; i++) {
+            char[] word = new char[1 + random.nextInt(10)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + random.nextInt(26));
+            }
+            vocabulary[i] = new String(word);
+        }
+
+        StringBuilder text = new StringBuilder(SYNTHETIC_SIZE);
+        while (text.length() < SYNTHETIC_SIZE) {
+            // Squaring a uniform variate favors the start of the vocabulary
+            double u = random.nextDouble();
+            text.append(vocabulary[(int) (u * u * vocabulary.length)]).append(random.nextInt(12) == 0 ? ".\n" : " ");
+        }
+        text.setLength(SYNTHETIC_SIZE);
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.wikimedia.lzma.benchmarks;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the throughput half of {@link CompareBenchmark} for this binding and pure-Java XZ, and
+ * reports MB/s by input size, along with the crossover: the smallest input size from which this
+ * binding is faster at every size measured. Below it, the fixed cost of each call through JNA
+ * outweighs the speed of native code. Any JMH command line options (e.g. {@code -p preset=6}) are
+ * passed through.
+ * 
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.wikimedia.lzma.benchmarks.Crossover -p preset=6
+ * </pre>
+ * 
+ * @author Eric Evans
+ *
+ */
+public final class Crossover {
+
+    private static final String[] CODECS = { "LIBLZMA", "LIBLZMA_ONESHOT", "XZ_JAVA" };
+    private static final String BASELINE = "XZ_JAVA";
+
+    private Crossover() {
+    }
+
+    public static void main(String... args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(CompareBenchmark.class.getName())
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS)
+                .param("codec", CODECS)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        // benchmark/preset -> size -> codec -> MB/s
+        Map<String, SortedMap<Integer, Map<String, Double>>> scores = new TreeMap<>();
+        for (RunResult r : results) {
+            BenchmarkParams params = r.getParams();
+            String method = params.getBenchmark().substring(params.getBenchmark().lastIndexOf('.') + 1);
+            String key = String.format("%s, preset %s, %s", method, params.getParam("preset"), params.getParam("corpus"));
+            int size = Integer.parseInt(params.getParam("size"));
+
+            SortedMap<Integer, Map<String, Double>> bySize = scores.get(key);
+            if (bySize == null) {
+                bySize = new TreeMap<>();
+                scores.put(key, bySize);
+            }
+            Map<String, Double> byCodec = bySize.get(size);
+            if (byCodec == null) {
+                byCodec = new TreeMap<>();
+                bySize.put(size, byCodec);
+            }
+            byCodec.put(params.getParam("codec"), r.getPrimaryResult().getScore() * size / 1e6);
+        }
+
+        for (Map.Entry<String, SortedMap<Integer, Map<String, Double>>> e : scores.entrySet()) {
+            System.out.printf("%n%s (MB/s)%n%10s", e.getKey(), "size");
+            for (String codec : CODECS) {
+                System.out.printf(" %16s", codec);
+            }
+            System.out.println();
+            for (Map.Entry<Integer, Map<String, Double>> s : e.getValue().entrySet()) {
+                System.out.printf("%10d", s.getKey());
+                for (String codec : CODECS) {
+                    Double score = s.getValue().get(codec);
+                    System.out.printf(" %16s", score == null ? "-" : String.format("%.2f", score));
+                }
+                System.out.println();
+            }
+            for (String codec : CODECS) {
+                if (!codec.equals(BASELINE)) {
+                    System.out.printf("%s crossover vs %s: %s%n", codec, BASELINE, crossover(e.getValue(), codec));
+                }
+            }
+        }
+    }
+
+    private static String crossover(SortedMap<Integer, Map<String, Double>> bySize, String codec) {
+        Integer crossover = null;
+        for (Map.Entry<Integer, Map<String, Double>> s : bySize.entrySet()) {
+            Double score = s.getValue().get(codec);
+            Double baseline = s.getValue().get(BASELINE);
+            if (score == null || baseline == null) {
+                continue;
+            }
+            if (score < baseline) {
+                crossover = null;
+            }
+            else if (crossover == null) {
+                crossover = s.getKey();
+            }
+        }
+        if (crossover == null) {
+            return "none (slower at the largest size measured)";
+        }
+        return crossover.equals(bySize.firstKey()) ? String.format("faster at all sizes (from %d bytes)", crossover)
+                : String.format("%d bytes", crossover);
+    }
+
+}
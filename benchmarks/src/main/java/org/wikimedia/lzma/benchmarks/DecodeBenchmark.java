@@ -0,0 +1,84 @@
+package org.wikimedia.lzma.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.wikimedia.lzma.Decoder;
+import org.wikimedia.lzma.Lzma;
+
+import com.google.common.primitives.UnsignedLong;
+
+/**
+ * Decompression throughput, in ops/s and (uncompressed) MB/s. Allocation rates are reported with
+ * {@code -prof gc}.
+ * 
+ * @author Eric Evans
+ *
+ */
+public class DecodeBenchmark extends CodecBenchmark {
+
+    private Decoder decoder;
+    private byte[] compressed;
+    private byte[] output;
+    private ByteBuffer src;
+    private ByteBuffer dst;
+
+    @Override
+    protected void setUpCodec() throws IOException {
+        this.compressed = Lzma.compress(this.input, this.filters, CHECK);
+        // One byte to spare, so that the end of stream is always reached
+        this.output = new byte[this.input.length + 1];
+        this.decoder = new Decoder(
+                EnumSet.of(Decoder.Flags.NONE),
+                this.threads,
+                UnsignedLong.MAX_VALUE,
+                UnsignedLong.MAX_VALUE,
+                this.bufferSize);
+        this.src = ByteBuffer.allocateDirect(this.compressed.length);
+        this.src.put(this.compressed);
+        this.dst = ByteBuffer.allocateDirect(this.output.length);
+    }
+
+    @Override
+    protected void tearDownCodec() {
+        this.decoder.end();
+    }
+
+    @Benchmark
+    public int decode(Throughput throughput) throws IOException {
+        int size;
+        switch (this.api) {
+        case ONESHOT:
+            size = Lzma.decompress(
+                    this.compressed,
+                    0,
+                    this.compressed.length,
+                    this.output,
+                    0,
+                    this.output.length,
+                    UnsignedLong.MAX_VALUE);
+            break;
+        case DIRECT:
+            size = decodeDirect();
+            break;
+        default:
+            size = Streaming.decode(this.decoder, this.compressed, this.compressed.length, this.output, this.bufferSize);
+        }
+        throughput.add(size, this.compressed.length);
+        return size;
+    }
+
+    private int decodeDirect() throws IOException {
+        this.decoder.reset();
+        this.src.clear();
+        this.dst.clear();
+        this.decoder.finish();
+        while (!this.decoder.finished()) {
+            this.decoder.decode(this.src, this.dst);
+        }
+        return this.dst.position();
+    }
+
+}
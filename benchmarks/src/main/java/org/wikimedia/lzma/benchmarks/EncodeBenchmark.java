@@ -0,0 +1,84 @@
+package org.wikimedia.lzma.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.wikimedia.lzma.Encoder;
+import org.wikimedia.lzma.Lzma;
+
+/**
+ * Compression throughput, in ops/s and (uncompressed) MB/s. The compression ratio for each trial is
+ * printed at its end, and can also be had from the ratio of the uncompressedMB and compressedMB
+ * rates. Allocation rates are reported with {@code -prof gc}.
+ * 
+ * @author Eric Evans
+ *
+ */
+public class EncodeBenchmark extends CodecBenchmark {
+
+    private Encoder encoder;
+    private byte[] output;
+    private ByteBuffer src;
+    private ByteBuffer dst;
+    private int compressedSize;
+
+    @Override
+    protected void setUpCodec() {
+        this.output = new byte[(int) Lzma.maxCompressedSize(this.input.length)];
+        this.encoder = new Encoder(this.filters, CHECK, this.threads, 0, 0, this.bufferSize);
+        this.src = ByteBuffer.allocateDirect(this.input.length);
+        this.src.put(this.input);
+        this.dst = ByteBuffer.allocateDirect(this.output.length);
+    }
+
+    @Override
+    protected void tearDownCodec() {
+        System.out.printf(
+                "%n# %s, preset %s, %s, %s: %d -> %d bytes, ratio %.3f%n",
+                this.corpus,
+                this.preset,
+                this.chain,
+                this.api,
+                this.input.length,
+                this.compressedSize,
+                (double) this.input.length / this.compressedSize);
+        this.encoder.end();
+    }
+
+    @Benchmark
+    public int encode(Throughput throughput) throws IOException {
+        switch (this.api) {
+        case ONESHOT:
+            this.compressedSize = Lzma.compress(
+                    this.input,
+                    0,
+                    this.input.length,
+                    this.output,
+                    0,
+                    this.output.length,
+                    this.filters,
+                    CHECK);
+            break;
+        case DIRECT:
+            this.compressedSize = encodeDirect();
+            break;
+        default:
+            this.compressedSize = Streaming.encode(this.encoder, this.input, this.input.length, this.output, this.bufferSize);
+        }
+        throughput.add(this.input.length, this.compressedSize);
+        return this.compressedSize;
+    }
+
+    private int encodeDirect() throws IOException {
+        this.encoder.reset();
+        this.src.clear();
+        this.dst.clear();
+        this.encoder.finish();
+        while (!this.encoder.finished()) {
+            this.encoder.encode(this.src, this.dst);
+        }
+        return this.dst.position();
+    }
+
+}
@@ -0,0 +1,63 @@
+package org.wikimedia.lzma.benchmarks;
+
+import java.io.IOException;
+
+import org.wikimedia.lzma.Decoder;
+import org.wikimedia.lzma.Encoder;
+
+/**
+ * Complete encodes and decodes using the streaming byte array API, feeding input in chunks.
+ * 
+ * @author Eric Evans
+ *
+ */
+final class Streaming {
+
+    private Streaming() {
+    }
+
+    /**
+     * Resets {@code encoder}, and compresses {@code len} bytes of {@code src} into {@code dst},
+     * which must be large enough for the entire result.
+     * 
+     * @return the compressed size
+     */
+    static int encode(Encoder encoder, byte[] src, int len, byte[] dst, int chunkSize) throws IOException {
+        encoder.reset();
+        int written = 0;
+        for (int offset = 0; offset < len; offset += chunkSize) {
+            encoder.setInput(src, offset, Math.min(chunkSize, len - offset));
+            while (!encoder.needsInput()) {
+                written += encoder.encode(dst, written, dst.length - written);
+            }
+        }
+        encoder.finish();
+        while (!encoder.finished()) {
+            written += encoder.encode(dst, written, dst.length - written);
+        }
+        return written;
+    }
+
+    /**
+     * Resets {@code decoder}, and decompresses {@code len} bytes of {@code src} into {@code dst},
+     * which must be larger than the entire result (so that the end of stream can be reached).
+     * 
+     * @return the decompressed size
+     */
+    static int decode(Decoder decoder, byte[] src, int len, byte[] dst, int chunkSize) throws IOException {
+        decoder.reset();
+        int written = 0;
+        for (int offset = 0; offset < len; offset += chunkSize) {
+            decoder.setInput(src, offset, Math.min(chunkSize, len - offset));
+            while (!decoder.needsInput() && !decoder.finished()) {
+                written += decoder.decode(dst, written, dst.length - written);
+            }
+        }
+        decoder.finish();
+        while (!decoder.finished()) {
+            written += decoder.decode(dst, written, dst.length - written);
+        }
+        return written;
+    }
+
+}
@@ -0,0 +1,35 @@
+package org.wikimedia.lzma.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary benchmark results, reported per second alongside the primary ops/s: megabytes of
+ * uncompressed data processed (MB/s), and of compressed data.
+ * 
+ * @author Eric Evans
+ *
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+    private static final double MB = 1000 * 1000;
+
+    public double uncompressedMB;
+    public double compressedMB;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        this.uncompressedMB = 0;
+        this.compressedMB = 0;
+    }
+
+    void add(int uncompressed, int compressed) {
+        this.uncompressedMB += uncompressed / MB;
+        this.compressedMB += compressed / MB;
+    }
+
+}
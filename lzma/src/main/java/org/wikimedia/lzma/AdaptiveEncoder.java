@@ -0,0 +1,274 @@
+package org.wikimedia.lzma;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Objects;
+
+/**
+ * Compresses to .xz with the strongest settings that fit a speed budget, chosen by measurement.
+ *
+ * <p>
+ * The first time a content type is seen, a prefix of the input is compressed with each of the
+ * candidate filter chains (by default, LZMA2 with presets 0-6), recording the throughput and
+ * compression ratio of each. That profile is cached for the content type, and used to select,
+ * for each input, the candidate with the best ratio whose throughput meets the minimum, and whose
+ * projected time to compress the whole input meets the maximum latency. If no candidate fits,
+ * the fastest is used.
+ * </p>
+ *
+ * <p>
+ * Inputs smaller than {@value #MIN_SAMPLE_SIZE} bytes (or the sample size, if smaller) are too
+ * small to profile reliably, as initialization dominates their measurements; Until a larger input
+ * of the content type has been seen, they are compressed with the first candidate (by default,
+ * preset 0).
+ * </p>
+ *
+ * <p>
+ * A profile reflects the sample it was measured from, and the machine (and its load) at the time;
+ * Use {@link AdaptiveEncoder#invalidate(String)} to measure again.
+ * </p>
+ *
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * AdaptiveEncoder encoder = AdaptiveEncoder.builder().minThroughput(20).maxLatency(5, TimeUnit.MILLISECONDS).build();
+ * byte[] compressed = encoder.compress("text/html", page);
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ *
+ * @author Eric Evans
+ *
+ */
+public final class AdaptiveEncoder {
+
+    /** Default size of the input prefix sampled */
+    public static final int DEFAULT_SAMPLE_SIZE = 256 * 1024;
+
+    /** Size of the smallest sample a profile is measured from, unless the sample size is smaller */
+    public static final int MIN_SAMPLE_SIZE = 64 * 1024;
+
+    private static final double MB = 1000 * 1000;
+
+    /** Number of times each candidate is timed; The fastest is kept */
+    private static final int TRIALS = 3;
+
+    private final List<FilterChain> candidates;
+    private final Check check;
+    private final int sampleSize;
+    private final double minThroughput;
+    private final long maxLatencyNanos;
+    private final ConcurrentMap<String, List<Measurement>> profiles = new ConcurrentHashMap<>();
+
+    private AdaptiveEncoder(Builder builder) {
+        this.candidates = Collections.unmodifiableList(new ArrayList<>(builder.candidates));
+        this.check = builder.check;
+        this.sampleSize = builder.sampleSize;
+        this.minThroughput = builder.minThroughput;
+        this.maxLatencyNanos = builder.maxLatencyNanos;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Compresses {@code src} to .xz, with the settings selected for {@code contentType}. */
+    public byte[] compress(String contentType, byte[] src) throws LzmaException {
+        return Lzma.compress(src, select(contentType, src), this.check);
+    }
+
+    /**
+     * Selects the filter chain for compressing {@code src}, profiling {@code contentType} with a
+     * prefix of {@code src} if it has not been already. The result can be used with any of the
+     * {@link Encoder} constructors, e.g. to compress a stream of which {@code src} is the start.
+     */
+    public FilterChain select(String contentType, byte[] src) throws LzmaException {
+        checkNotNull(src, "src argument");
+        List<Measurement> profile = profile(contentType, src);
+        if (profile == null) {
+            return this.candidates.get(0);
+        }
+        Measurement best = null;
+        Measurement fastest = null;
+        for (Measurement m : profile) {
+            if (fastest == null || m.throughput > fastest.throughput) {
+                fastest = m;
+            }
+            if (fits(m, src.length) && (best == null || m.ratio > best.ratio)) {
+                best = m;
+            }
+        }
+        return (best != null ? best : fastest).filters;
+    }
+
+    /** @return the profile of {@code contentType}, or null if it has not been measured */
+    public List<Measurement> getProfile(String contentType) {
+        return this.profiles.get(checkNotNull(contentType, "contentType argument"));
+    }
+
+    /** Discards the profile of {@code contentType}, so that it is measured again when next used. */
+    public void invalidate(String contentType) {
+        this.profiles.remove(checkNotNull(contentType, "contentType argument"));
+    }
+
+    public List<FilterChain> getCandidates() {
+        return this.candidates;
+    }
+
+    public Check getCheck() {
+        return this.check;
+    }
+
+    private boolean fits(Measurement m, int length) {
+        if (m.getThroughput() < this.minThroughput) {
+            return false;
+        }
+        return (length / (m.getThroughput() * MB)) * TimeUnit.SECONDS.toNanos(1) <= this.maxLatencyNanos;
+    }
+
+    /**
+     * @return the profile of {@code contentType}, or null if it has not been measured, and
+     *         {@code src} is too small to measure it from
+     */
+    private List<Measurement> profile(String contentType, byte[] src) throws LzmaException {
+        checkNotNull(contentType, "contentType argument");
+        List<Measurement> profile = this.profiles.get(contentType);
+        if (profile != null || src.length < Math.min(MIN_SAMPLE_SIZE, this.sampleSize)) {
+            return profile;
+        }
+
+        // Concurrent first uses may each measure; The first to finish wins
+        byte[] sample = Arrays.copyOf(src, Math.min(src.length, this.sampleSize));
+        List<Measurement> measured = new ArrayList<>();
+        for (FilterChain filters : this.candidates) {
+            measured.add(measure(filters, sample));
+        }
+        profile = Collections.unmodifiableList(measured);
+        List<Measurement> previous = this.profiles.putIfAbsent(contentType, profile);
+        return previous != null ? previous : profile;
+    }
+
+    private Measurement measure(FilterChain filters, byte[] sample) throws LzmaException {
+        long elapsed = Long.MAX_VALUE;
+        int compressed = 0;
+        for (int i = 0; i < TRIALS; i++) {
+            long start = System.nanoTime();
+            compressed = Lzma.compress(sample, filters, this.check).length;
+            elapsed = Math.min(elapsed, System.nanoTime() - start);
+        }
+        double seconds = Math.max(elapsed, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+        return new Measurement(filters, (sample.length / MB) / seconds, sample.length / (double) compressed);
+    }
+
+    /** The throughput and compression ratio of a candidate, as measured on a sample. */
+    public static final class Measurement {
+        private final FilterChain filters;
+        private final double throughput;
+        private final double ratio;
+
+        private Measurement(FilterChain filters, double throughput, double ratio) {
+            this.filters = filters;
+            this.throughput = throughput;
+            this.ratio = ratio;
+        }
+
+        public FilterChain getFilters() {
+            return this.filters;
+        }
+
+        /** @return the rate uncompressed data was compressed at, in MB/s */
+        public double getThroughput() {
+            return this.throughput;
+        }
+
+        /** @return the uncompressed size divided by the compressed size */
+        public double getRatio() {
+            return this.ratio;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("filters", this.filters)
+                    .add("throughput", String.format("%.1f MB/s", this.throughput))
+                    .add("ratio", String.format("%.3f", this.ratio))
+                    .toString();
+        }
+    }
+
+    public static final class Builder {
+        private final List<FilterChain> candidates = new ArrayList<>();
+        private Check check = Lzma.DEFAULT_CHECK;
+        private int sampleSize = DEFAULT_SAMPLE_SIZE;
+        private double minThroughput = 0;
+        private long maxLatencyNanos = Long.MAX_VALUE;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds LZMA2 with each of {@code presets} to the candidates. Presets 7-9 only pay off for
+         * inputs larger than their dictionary (8 MiB or more), and are costly to initialize.
+         */
+        public Builder presets(int... presets) {
+            for (int preset : presets) {
+                candidate(FilterChain.lzma2(preset));
+            }
+            return this;
+        }
+
+        /** Adds a filter chain to the candidates */
+        public Builder candidate(FilterChain filters) {
+            this.candidates.add(checkNotNull(filters, "filters argument"));
+            return this;
+        }
+
+        public Builder check(Check check) {
+            this.check = checkNotNull(check, "check argument");
+            return this;
+        }
+
+        /** Sets the size of the input prefix used to profile a content type */
+        public Builder sampleSize(int bytes) {
+            checkArgument(bytes > 0, "sample size must be positive");
+            this.sampleSize = bytes;
+            return this;
+        }
+
+        /** Sets the minimum throughput, in MB/s of uncompressed data */
+        public Builder minThroughput(double mbPerSecond) {
+            checkArgument(mbPerSecond >= 0, "throughput must be non-negative");
+            this.minThroughput = mbPerSecond;
+            return this;
+        }
+
+        /** Sets the maximum (projected) time to compress an input */
+        public Builder maxLatency(long duration, TimeUnit unit) {
+            checkArgument(duration > 0, "latency must be positive");
+            this.maxLatencyNanos = checkNotNull(unit, "unit argument").toNanos(duration);
+            return this;
+        }
+
+        /** Builds the encoder; Unless candidates were added, LZMA2 with presets 0-6 are used */
+        public AdaptiveEncoder build() {
+            if (this.candidates.isEmpty()) {
+                presets(0, 1, 2, 3, 4, 5, 6);
+            }
+            return new AdaptiveEncoder(this);
+        }
+    }
+
+}
@@ -0,0 +1,449 @@
+package org.wikimedia.lzma;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.primitives.UnsignedLong;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Compresses and decompresses .xz asynchronously, on a bounded pool of worker threads, or on an
+ * executor of the caller's.
+ *
+ * <p>
+ * Work is queued for the workers, which lease coders from a {@link CodecPool}. The number of
+ * requests admitted (queued or in progress) is bounded; Beyond it, further requests are rejected
+ * (the future returned fails with a {@link RejectedExecutionException}), rather than blocking the
+ * caller, so that callers can shed load. A request may be given a deadline, after which its future
+ * fails with a {@link TimeoutException}, and may be cancelled by cancelling its future; In either
+ * case, a request still queued is skipped, and one in progress is abandoned at the next chunk of
+ * input, with its coder ended (see: lzma_end) by the worker using it, rather than returned to the
+ * pool.
+ * </p>
+ *
+ * <p>
+ * The contents of the source buffer are read by the worker, and must not be modified until the
+ * request completes; Its position and limit are left unchanged. Results are returned in heap
+ * buffers.
+ * </p>
+ *
+ * <p>
+ * To serve requests on virtual threads, pass a virtual-thread-per-task executor. Each request then
+ * has a thread of its own, which parks (releasing its carrier) while waiting for a coder, and holds
+ * no lock while coding; The calls into liblzma do occupy the carrier for their duration, so the
+ * pool's cap on coders should be near the number of carriers, leaving the remaining requests parked
+ * rather than starving other virtual threads.
+ * </p>
+ *
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * AsyncLzma lzma = new AsyncLzma(4, 256);
+ * lzma.compress(ByteBuffer.wrap(page), FilterChain.lzma2(6), Check.CRC64, 50, TimeUnit.MILLISECONDS)
+ *         .thenAccept(compressed -&gt; store(compressed));
+ *
+ * // Or, on virtual threads (Java 21)
+ * AsyncLzma lzma = new AsyncLzma(Executors.newVirtualThreadPerTaskExecutor(), 10000, pool);
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ *
+ * @author Eric Evans
+ *
+ */
+public final class AsyncLzma implements AutoCloseable {
+
+    /** Default maximum number of requests awaiting a worker */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /** Buffer high-water mark of the coders in pools created here */
+    private static final int BUFFER_SIZE = XZOutputStream.DEFAULT_WINDOW_SIZE;
+
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final Executor executor;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledThreadPoolExecutor timer;
+    private final CodecPool pool;
+    private final boolean ownsPool;
+    private final Semaphore admitted;
+    private final AtomicInteger queued = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    public AsyncLzma() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param threads
+     *            the number of worker threads
+     * @param queueCapacity
+     *            the maximum number of requests awaiting a worker
+     */
+    public AsyncLzma(int threads, int queueCapacity) {
+        this(threads, queueCapacity, new CodecPool(threads, CodecPool.DEFAULT_IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS, BUFFER_SIZE), true);
+    }
+
+    /**
+     * @param threads
+     *            the number of worker threads
+     * @param queueCapacity
+     *            the maximum number of requests awaiting a worker
+     * @param pool
+     *            the pool to lease coders from; It is not closed along with this object
+     */
+    public AsyncLzma(int threads, int queueCapacity, CodecPool pool) {
+        this(threads, queueCapacity, pool, false);
+    }
+
+    /**
+     * Runs requests on {@code executor}, which is not shut down along with this object.
+     *
+     * @param executor
+     *            the executor to run requests on, e.g. a virtual-thread-per-task executor
+     * @param maxRequests
+     *            the maximum number of requests admitted (queued or in progress) at once
+     * @param pool
+     *            the pool to lease coders from; It is not closed along with this object
+     */
+    public AsyncLzma(Executor executor, int maxRequests, CodecPool pool) {
+        checkArgument(maxRequests > 0, "maxRequests must be positive");
+        this.executor = checkNotNull(executor, "executor argument");
+        this.workers = null;
+        this.pool = checkNotNull(pool, "pool argument");
+        this.ownsPool = false;
+        this.admitted = new Semaphore(maxRequests);
+        this.timer = timer();
+    }
+
+    private AsyncLzma(int threads, int queueCapacity, CodecPool pool, boolean ownsPool) {
+        checkArgument(threads > 0, "threads must be positive");
+        checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+        this.pool = checkNotNull(pool, "pool argument");
+        this.ownsPool = ownsPool;
+        // Admission is bounded by the semaphore, not the queue
+        this.workers = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                threadFactory("lzma-async-%d"));
+        this.executor = this.workers;
+        this.admitted = new Semaphore(threads + queueCapacity);
+        this.timer = timer();
+    }
+
+    /** Compresses the remaining contents of {@code src}, with the default filters and check. */
+    public CompletableFuture<ByteBuffer> compress(ByteBuffer src) {
+        return compress(src, Lzma.DEFAULT_FILTERS, Lzma.DEFAULT_CHECK, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Compresses the remaining contents of {@code src} to .xz.
+     *
+     * @param timeout
+     *            the time allowed for the request to complete, or 0 for no deadline
+     * @param unit
+     *            the unit of {@code timeout}
+     * @return a future completed with the compressed data
+     */
+    public CompletableFuture<ByteBuffer> compress(ByteBuffer src, FilterChain filters, Check check, long timeout, TimeUnit unit) {
+        checkNotNull(src, "src argument");
+        checkNotNull(filters, "filters argument");
+        checkNotNull(check, "check argument");
+        return submit(new CompressTask(src.duplicate(), filters, check), timeout, unit);
+    }
+
+    /** Decompresses the remaining contents of {@code src}, with no memory usage limit. */
+    public CompletableFuture<ByteBuffer> decompress(ByteBuffer src) {
+        return decompress(src, UnsignedLong.MAX_VALUE, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Decompresses the .xz stream in the remaining contents of {@code src}.
+     *
+     * @param timeout
+     *            the time allowed for the request to complete, or 0 for no deadline
+     * @param unit
+     *            the unit of {@code timeout}
+     * @return a future completed with the decompressed data, or failed with a
+     *         {@link LzmaException} if the stream is invalid or corrupt
+     */
+    public CompletableFuture<ByteBuffer> decompress(ByteBuffer src, UnsignedLong memLimit, long timeout, TimeUnit unit) {
+        checkNotNull(src, "src argument");
+        checkNotNull(memLimit, "memLimit argument");
+        return submit(new DecompressTask(src.duplicate(), memLimit), timeout, unit);
+    }
+
+    /** @return the number of requests awaiting a worker */
+    public int getQueued() {
+        return this.queued.get();
+    }
+
+    /**
+     * Stops accepting requests, and fails those still queued with a
+     * {@link RejectedExecutionException}. Requests in progress run to completion.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        if (this.workers != null) {
+            for (Runnable r : this.workers.shutdownNow()) {
+                ((Task) r).reject(new RejectedExecutionException("closed"));
+            }
+        }
+        this.timer.shutdownNow();
+        if (this.ownsPool) {
+            this.pool.close();
+        }
+    }
+
+    private CompletableFuture<ByteBuffer> submit(Task task, long timeout, TimeUnit unit) {
+        checkArgument(timeout >= 0, "timeout must be non-negative");
+        checkNotNull(unit, "unit argument");
+        if (this.closed) {
+            task.future.completeExceptionally(new RejectedExecutionException("closed"));
+            return task.future;
+        }
+        if (!this.admitted.tryAcquire()) {
+            task.future.completeExceptionally(new RejectedExecutionException("too many requests"));
+            return task.future;
+        }
+        this.queued.incrementAndGet();
+        try {
+            this.executor.execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            task.reject(e);
+            return task.future;
+        }
+        if (timeout > 0) {
+            ScheduledFuture<?> deadline = this.timer.schedule(
+                    () -> task.future.completeExceptionally(new TimeoutException("deadline exceeded")),
+                    timeout,
+                    unit);
+            task.future.whenComplete((result, error) -> deadline.cancel(false));
+        }
+        return task.future;
+    }
+
+    private static ScheduledThreadPoolExecutor timer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, threadFactory("lzma-async-timer-%d"));
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private static ThreadFactory threadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
+    private abstract class Task implements Runnable {
+        protected final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        protected final Input input;
+
+        private Task(ByteBuffer src, int chunkSize) {
+            this.input = new Input(src, chunkSize);
+        }
+
+        @Override
+        public void run() {
+            AsyncLzma.this.queued.decrementAndGet();
+            try {
+                // Cancelled, or past its deadline, while queued
+                if (this.future.isDone()) {
+                    return;
+                }
+                if (AsyncLzma.this.closed) {
+                    this.future.completeExceptionally(new RejectedExecutionException("closed"));
+                    return;
+                }
+                this.future.complete(call());
+            }
+            catch (Throwable t) {
+                this.future.completeExceptionally(t);
+            }
+            finally {
+                AsyncLzma.this.admitted.release();
+            }
+        }
+
+        /** Fails a request that was admitted, but will not be run. */
+        private void reject(RejectedExecutionException e) {
+            AsyncLzma.this.queued.decrementAndGet();
+            AsyncLzma.this.admitted.release();
+            this.future.completeExceptionally(e);
+        }
+
+        protected abstract ByteBuffer call() throws Exception;
+
+        /** Abandons the request, if its future has already been completed (cancelled, or timed out). */
+        protected void checkAbandoned() {
+            if (this.future.isDone()) {
+                throw new CancellationException("request abandoned");
+            }
+        }
+    }
+
+    private class CompressTask extends Task {
+        private final FilterChain filters;
+        private final Check check;
+
+        private CompressTask(ByteBuffer src, FilterChain filters, Check check) {
+            super(src, AsyncLzma.this.pool.getBufferSize());
+            this.filters = filters;
+            this.check = check;
+        }
+
+        @Override
+        protected ByteBuffer call() throws Exception {
+            long bound = Lzma.maxCompressedSize(this.input.remaining());
+            if (bound > MAX_ARRAY_SIZE) {
+                throw new LzmaException("input is too large to compress to a buffer");
+            }
+            byte[] dst = new byte[(int) bound];
+
+            Encoder encoder = AsyncLzma.this.pool.borrowEncoder(this.filters, this.check);
+            try {
+                int written = 0;
+                while (!encoder.finished()) {
+                    if (encoder.needsInput() && this.input.hasRemaining()) {
+                        this.input.next();
+                        encoder.setInput(this.input.array, this.input.offset, this.input.length);
+                        if (!this.input.hasRemaining()) {
+                            encoder.finish();
+                        }
+                    }
+                    else if (!this.input.hasRemaining()) {
+                        encoder.finish();
+                    }
+                    checkAbandoned();
+                    written += encoder.encode(dst, written, dst.length - written);
+                }
+                return ByteBuffer.wrap(dst, 0, written).slice();
+            }
+            catch (Exception e) {
+                // Abandoned mid-stream, or failed; End it here, on the thread that was using it
+                encoder.end();
+                throw e;
+            }
+            finally {
+                AsyncLzma.this.pool.release(encoder);
+            }
+        }
+    }
+
+    private class DecompressTask extends Task {
+        private final UnsignedLong memLimit;
+
+        private DecompressTask(ByteBuffer src, UnsignedLong memLimit) {
+            super(src, AsyncLzma.this.pool.getBufferSize());
+            this.memLimit = memLimit;
+        }
+
+        @Override
+        protected ByteBuffer call() throws Exception {
+            byte[] dst = new byte[(int) Math.min(Math.max(this.input.remaining() * 4L, 4096), MAX_ARRAY_SIZE)];
+
+            Decoder decoder = AsyncLzma.this.pool.borrowDecoder(this.memLimit, EnumSet.of(Decoder.Flags.NONE));
+            try {
+                int written = 0;
+                while (!decoder.finished()) {
+                    if (decoder.needsInput()) {
+                        if (this.input.hasRemaining()) {
+                            this.input.next();
+                            decoder.setInput(this.input.array, this.input.offset, this.input.length);
+                        }
+                        else {
+                            decoder.finish();
+                        }
+                    }
+                    checkAbandoned();
+                    if (written == dst.length) {
+                        dst = grow(dst);
+                    }
+                    written += decoder.decode(dst, written, dst.length - written);
+                }
+                return ByteBuffer.wrap(dst, 0, written).slice();
+            }
+            catch (Exception e) {
+                decoder.end();
+                throw e;
+            }
+            finally {
+                AsyncLzma.this.pool.release(decoder);
+            }
+        }
+
+        private byte[] grow(byte[] buf) throws LzmaException {
+            if (buf.length == MAX_ARRAY_SIZE) {
+                throw new LzmaException("output is too large to decompress to a buffer");
+            }
+            byte[] grown = new byte[(int) Math.min(buf.length * 2L, MAX_ARRAY_SIZE)];
+            System.arraycopy(buf, 0, grown, 0, buf.length);
+            return grown;
+        }
+    }
+
+    /**
+     * Presents the contents of a buffer in chunks no larger than a coder's internal buffers; Heap
+     * buffers in place, and others by way of a copy.
+     */
+    private static final class Input {
+        private final ByteBuffer src;
+        private final int chunkSize;
+        private final byte[] scratch;
+        private byte[] array;
+        private int offset;
+        private int length;
+
+        private Input(ByteBuffer src, int chunkSize) {
+            this.src = src;
+            this.chunkSize = chunkSize;
+            this.scratch = src.hasArray() ? null : new byte[Math.min(chunkSize, src.remaining())];
+        }
+
+        private int remaining() {
+            return this.src.remaining();
+        }
+
+        private boolean hasRemaining() {
+            return this.src.hasRemaining();
+        }
+
+        private void next() {
+            this.length = Math.min(this.chunkSize, this.src.remaining());
+            if (this.scratch == null) {
+                this.array = this.src.array();
+                this.offset = this.src.arrayOffset() + this.src.position();
+                this.src.position(this.src.position() + this.length);
+            }
+            else {
+                this.src.get(this.scratch, 0, this.length);
+                this.array = this.scratch;
+                this.offset = 0;
+            }
+        }
+    }
+
+}
@@ -1,7 +1,13 @@
 package org.wikimedia.lzma;
 
-import com.sun.jna.LastErrorException;
+import com.sun.jna.Function;
 import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.LongByReference;
+import com.sun.jna.ptr.NativeLongByReference;
+import com.sun.jna.ptr.PointerByReference;
 
 public class CLibrary {
 
@@ -10,16 +16,143 @@ public class CLibrary {
         //Native.setProtected(true);
     }
 
-    public static native int lzma_stream_decoder(Stream strm, long memlimit, int flags) throws LastErrorException;
+    public static native int lzma_stream_decoder(Stream strm, long memlimit, int flags);
 
-    public static native void lzma_end(Stream strm) throws LastErrorException;
+    public static native void lzma_end(Stream strm);
 
-    public static native int lzma_code(Stream strm, int action) throws LastErrorException;
+    public static native int lzma_code(Stream strm, int action);
 
-    public static native int lzma_easy_encoder(Stream strm, int preset, int check) throws LastErrorException;
+    /** Variant of lzma_code taking the raw lzma_stream pointer, for the allocation-free hot path. */
+    public static native int lzma_code(Pointer strm, int action);
 
-    public static native int lzma_stream_encoder(Stream strm, Filter filters, int check) throws LastErrorException;
+    public static native int lzma_easy_encoder(Stream strm, int preset, int check);
 
-    public static native boolean lzma_lzma_preset(Options options, int preset) throws LastErrorException;
+    public static native int lzma_stream_encoder(Stream strm, Filter filters, int check);
+
+    public static native boolean lzma_lzma_preset(Options options, int preset);
+
+    public static native int lzma_raw_encoder(Stream strm, Filter filters);
+
+    public static native int lzma_raw_decoder(Stream strm, Filter filters);
+
+    public static native int lzma_alone_encoder(Stream strm, Options options);
+
+    public static native int lzma_alone_decoder(Stream strm, long memlimit);
+
+    public static native long lzma_raw_encoder_memusage(Filter filters);
+
+    public static native long lzma_raw_decoder_memusage(Filter filters);
+
+    public static native long lzma_memusage(Stream strm);
+
+    public static native long lzma_memlimit_get(Stream strm);
+
+    public static native int lzma_memlimit_set(Stream strm, long memlimit);
+
+    public static native NativeLong lzma_stream_buffer_bound(NativeLong uncompressed_size);
+
+    public static native int lzma_stream_buffer_encode(
+            Filter filters,
+            int check,
+            Pointer allocator,
+            byte[] in,
+            NativeLong in_size,
+            byte[] out,
+            NativeLongByReference out_pos,
+            NativeLong out_size);
+
+    public static native int lzma_stream_buffer_encode(
+            Filter filters,
+            int check,
+            Pointer allocator,
+            Pointer in,
+            NativeLong in_size,
+            Pointer out,
+            NativeLongByReference out_pos,
+            NativeLong out_size);
+
+    public static native int lzma_stream_buffer_decode(
+            LongByReference memlimit,
+            int flags,
+            Pointer allocator,
+            byte[] in,
+            NativeLongByReference in_pos,
+            NativeLong in_size,
+            byte[] out,
+            NativeLongByReference out_pos,
+            NativeLong out_size);
+
+    public static native int lzma_stream_buffer_decode(
+            LongByReference memlimit,
+            int flags,
+            Pointer allocator,
+            Pointer in,
+            NativeLongByReference in_pos,
+            NativeLong in_size,
+            Pointer out,
+            NativeLongByReference out_pos,
+            NativeLong out_size);
+
+    public static native int lzma_index_buffer_decode(
+            PointerByReference i,
+            LongByReference memlimit,
+            Pointer allocator,
+            byte[] in,
+            NativeLongByReference in_pos,
+            NativeLong in_size);
+
+    public static native void lzma_index_end(Pointer i, Pointer allocator);
+
+    public static native int lzma_index_cat(Pointer dest, Pointer src, Pointer allocator);
+
+    public static native int lzma_index_stream_padding(Pointer i, long stream_padding);
+
+    public static native long lzma_index_stream_size(Pointer i);
+
+    public static native long lzma_index_uncompressed_size(Pointer i);
+
+    public static native long lzma_index_block_count(Pointer i);
+
+    public static native void lzma_index_iter_init(IndexIter iter, Pointer i);
+
+    /** @return non-zero (lzma_bool true) if {@code target} is beyond the end of the index */
+    public static native byte lzma_index_iter_locate(IndexIter iter, long target);
+
+    /*
+     * The functions below are absent from older versions of liblzma, and from builds without
+     * threading support. A single missing symbol causes Native.register() to fail for the entire
+     * class, so these are looked up on first use instead; Use isAvailable() to test for them.
+     */
+
+    public static int lzma_stream_encoder_mt(Stream strm, MTOptions options) {
+        return optional("lzma_stream_encoder_mt").invokeInt(new Object[] { strm, options });
+    }
+
+    public static int lzma_stream_decoder_mt(Stream strm, MTOptions options) {
+        return optional("lzma_stream_decoder_mt").invokeInt(new Object[] { strm, options });
+    }
+
+    public static int lzma_cputhreads() {
+        return optional("lzma_cputhreads").invokeInt(new Object[0]);
+    }
+
+    /**
+     * @param function
+     *            the name of a liblzma function
+     * @return true if the function is exported by the loaded liblzma
+     */
+    public static boolean isAvailable(String function) {
+        try {
+            optional(function);
+            return true;
+        }
+        catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+
+    private static Function optional(String function) {
+        return NativeLibrary.getInstance("lzma").getFunction(function);
+    }
 
 }
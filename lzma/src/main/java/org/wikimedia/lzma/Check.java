@@ -13,4 +13,13 @@ public enum Check {
     public int getCode() {
         return this.code;
     }
+
+    public static Check fromCode(int code) {
+        for (Check c : values()) {
+            if (c.getCode() == code) {
+                return c;
+            }
+        }
+        return null;
+    }
 }
\ No newline at end of file
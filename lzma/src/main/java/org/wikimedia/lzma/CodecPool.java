@@ -0,0 +1,603 @@
+package org.wikimedia.lzma;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.UnsignedLong;
+
+/**
+ * A thread-safe pool of {@link Encoder} and {@link Decoder} instances.
+ * 
+ * <p>
+ * Creating a coder allocates its native buffers and liblzma state; Under high request rates, it is
+ * far cheaper to reuse them. Coders are leased by configuration (filter chain and check, or memory
+ * limit and flags), and are reset when returned, so that they are ready for a new stream when next
+ * leased. The total number of coders (leased and idle) is capped; When the cap is reached, the least
+ * recently used idle coder is evicted to make room, or if all are leased, callers wait for one to be
+ * returned. Coders left idle for longer than the idle timeout are evicted as well.
+ * </p>
+ * 
+ * <p>
+ * Each coder created also reserves its projected native footprint against a {@link MemoryBudget}
+ * (by default, the {@linkplain MemoryBudget#global() global} one), for as long as it exists:
+ * Encoders, the memory their filter chain requires, and decoders, their memory usage limit, plus
+ * the internal buffers. With a bounded budget, a decoder's limit is lowered to the pool's decoder
+ * limit (by default, an equal share of the budget for each of the pool's coders), so that a hostile
+ * input fails with a {@link MemoryLimitException} rather than exhausting memory, and an unlimited
+ * decoder does not reserve the whole budget. Idle coders are evicted to make room; If the budget is
+ * still exhausted, the lease is rejected or queued, according to the budget's policy.
+ * </p>
+ * 
+ * <p>
+ * Waiting callers park on a lock condition rather than a monitor (as does {@link MemoryBudget}), so
+ * that a virtual thread waiting for a coder releases its carrier thread. No lock is held while a
+ * coder is in use.
+ * </p>
+ * 
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * Encoder encoder = pool.borrowEncoder(FilterChain.lzma2(6), Check.CRC64);
+ * try {
+ *     ...
+ * }
+ * finally {
+ *     pool.release(encoder);
+ * }
+ * </pre>
+ * </p>
+ * 
+ * @author Eric Evans
+ *
+ */
+public class CodecPool implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_TOTAL = 16;
+    public static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 60;
+
+    private final int maxTotal;
+    private final long idleTimeoutNanos;
+    private final int bufSize;
+    private final MemoryBudget budget;
+    private final UnsignedLong decoderMemLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition returned = this.lock.newCondition();
+    private final Map<Key, Deque<Idle>> idle = new HashMap<>();
+    private final Map<Object, Key> leased = new IdentityHashMap<>();
+    private final Map<Object, MemoryBudget.Reservation> reservations = new IdentityHashMap<>();
+    private int total = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private boolean closed = false;
+
+    public CodecPool() {
+        this(DEFAULT_MAX_TOTAL, DEFAULT_IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public CodecPool(int maxTotal, long idleTimeout, TimeUnit unit) {
+        this(maxTotal, idleTimeout, unit, Encoder.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param maxTotal
+     *            the maximum number of coders, leased and idle, at any one time
+     * @param idleTimeout
+     *            the time after which an idle coder is evicted
+     * @param unit
+     *            the unit of {@code idleTimeout}
+     * @param bufSize
+     *            the buffer high-water mark of coders created by the pool
+     */
+    public CodecPool(int maxTotal, long idleTimeout, TimeUnit unit, int bufSize) {
+        this(maxTotal, idleTimeout, unit, bufSize, MemoryBudget.global());
+    }
+
+    /**
+     * @param maxTotal
+     *            the maximum number of coders, leased and idle, at any one time
+     * @param idleTimeout
+     *            the time after which an idle coder is evicted
+     * @param unit
+     *            the unit of {@code idleTimeout}
+     * @param bufSize
+     *            the buffer high-water mark of coders created by the pool
+     * @param budget
+     *            the native memory budget coders are admitted against
+     */
+    public CodecPool(int maxTotal, long idleTimeout, TimeUnit unit, int bufSize, MemoryBudget budget) {
+        this(maxTotal, idleTimeout, unit, bufSize, budget, null);
+    }
+
+    /**
+     * @param maxTotal
+     *            the maximum number of coders, leased and idle, at any one time
+     * @param idleTimeout
+     *            the time after which an idle coder is evicted
+     * @param unit
+     *            the unit of {@code idleTimeout}
+     * @param bufSize
+     *            the buffer high-water mark of coders created by the pool
+     * @param budget
+     *            the native memory budget coders are admitted against
+     * @param decoderMemLimit
+     *            the maximum memory usage limit of decoders created by the pool, when the budget is
+     *            bounded; Requested limits above it are lowered to it, and it is the most reserved
+     *            for any one decoder
+     */
+    public CodecPool(int maxTotal,
+            long idleTimeout,
+            TimeUnit unit,
+            int bufSize,
+            MemoryBudget budget,
+            UnsignedLong decoderMemLimit) {
+        checkArgument(maxTotal > 0, "maxTotal must be positive");
+        checkArgument(idleTimeout >= 0, "idleTimeout must be non-negative");
+        this.maxTotal = maxTotal;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.bufSize = bufSize;
+        this.budget = checkNotNull(budget, "budget argument");
+        this.decoderMemLimit = decoderMemLimit(budget.getLimit(), maxTotal, bufSize, decoderMemLimit);
+    }
+
+    /**
+     * @return the limit decoders are capped at; Unlimited with an unbounded budget, and otherwise
+     *         the limit given (or an equal share of the budget for each coder), but no more than fits
+     */
+    private static UnsignedLong decoderMemLimit(long budgetLimit, int maxTotal, int bufSize, UnsignedLong requested) {
+        if (budgetLimit == Long.MAX_VALUE) {
+            return UnsignedLong.MAX_VALUE;
+        }
+        long buffers = 2L * bufSize;
+        UnsignedLong fits = UnsignedLong.valueOf(Math.max(budgetLimit - buffers, 1));
+        if (requested == null) {
+            return Ordering.natural().min(fits, UnsignedLong.valueOf(Math.max(budgetLimit / maxTotal - buffers, 1)));
+        }
+        return Ordering.natural().min(fits, requested);
+    }
+
+    /**
+     * Leases an encoder equivalent to {@code new Encoder(preset, check)}, waiting if the pool is at
+     * capacity with every coder leased.
+     * 
+     * @throws MemoryLimitException
+     *             if a new encoder is needed, and is rejected by the memory budget
+     */
+    public Encoder borrowEncoder(int preset, Check check) throws InterruptedException, MemoryLimitException {
+        return borrowEncoder(Encoder.defaultChain(Options.fromPreset(preset)), check);
+    }
+
+    /**
+     * Leases an encoder for the given filter chain and check, waiting if the pool is at capacity
+     * with every coder leased.
+     * 
+     * @throws MemoryLimitException
+     *             if a new encoder is needed, and is rejected by the memory budget
+     */
+    public Encoder borrowEncoder(FilterChain filters, Check check) throws InterruptedException, MemoryLimitException {
+        Key key = new Key(checkNotNull(filters, "filters argument"), checkNotNull(check, "check argument"), null, null);
+        return (Encoder) borrow(key);
+    }
+
+    /**
+     * Leases a decoder for the given memory limit and flags, waiting if the pool is at capacity with
+     * every coder leased.
+     * 
+     * @throws MemoryLimitException
+     *             if a new decoder is needed, and is rejected by the memory budget
+     */
+    public Decoder borrowDecoder(UnsignedLong memLimit, EnumSet<Decoder.Flags> flags)
+            throws InterruptedException,
+            MemoryLimitException {
+        Key key = new Key(null, null, checkNotNull(memLimit, "memLimit argument"), EnumSet.copyOf(flags));
+        return (Decoder) borrow(key);
+    }
+
+    /**
+     * Returns a leased encoder to the pool. Encoders that have been ended, or that cannot be reset,
+     * are discarded.
+     * 
+     * @throws IllegalArgumentException
+     *             if the encoder was not leased from this pool
+     */
+    public void release(Encoder encoder) {
+        Key key = unlease(encoder);
+        boolean reusable = false;
+        if (!encoder.isEnded()) {
+            try {
+                encoder.reset();
+                reusable = true;
+            }
+            catch (RuntimeException e) {
+                encoder.end();
+            }
+        }
+        restore(key, encoder, reusable);
+    }
+
+    /**
+     * Returns a leased decoder to the pool. Decoders that have been ended, or that cannot be reset,
+     * are discarded.
+     * 
+     * @throws IllegalArgumentException
+     *             if the decoder was not leased from this pool
+     */
+    public void release(Decoder decoder) {
+        Key key = unlease(decoder);
+        boolean reusable = false;
+        if (!decoder.isEnded()) {
+            try {
+                decoder.reset();
+                reusable = true;
+            }
+            catch (RuntimeException e) {
+                decoder.end();
+            }
+        }
+        restore(key, decoder, reusable);
+    }
+
+    /** Evicts coders that have been idle for longer than the idle timeout. */
+    public void evictIdle() {
+        this.lock.lock();
+        try {
+            long now = System.nanoTime();
+            for (Iterator<Deque<Idle>> it = this.idle.values().iterator(); it.hasNext();) {
+                Deque<Idle> entries = it.next();
+                while (!entries.isEmpty() && now - entries.peekLast().since > this.idleTimeoutNanos) {
+                    destroy(entries.removeLast().codec);
+                    this.evictions++;
+                }
+                if (entries.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** @return the maximum memory usage limit of decoders created by the pool */
+    public UnsignedLong getDecoderMemoryLimit() {
+        return this.decoderMemLimit;
+    }
+
+    /** @return the buffer high-water mark of coders created by the pool */
+    public int getBufferSize() {
+        return this.bufSize;
+    }
+
+    /** @return the number of leases satisfied by an idle coder */
+    public long getHits() {
+        this.lock.lock();
+        try {
+            return this.hits;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** @return the number of leases that required creating a coder */
+    public long getMisses() {
+        this.lock.lock();
+        try {
+            return this.misses;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** @return the number of idle coders evicted (to make room, or after the idle timeout) */
+    public long getEvictions() {
+        this.lock.lock();
+        try {
+            return this.evictions;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** @return the number of coders currently leased */
+    public int getLeased() {
+        this.lock.lock();
+        try {
+            return this.leased.size();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** @return the number of coders currently idle */
+    public int getIdle() {
+        this.lock.lock();
+        try {
+            return this.total - this.leased.size();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Ends all idle coders, and prevents further leases. Coders leased at the time are ended when
+     * they are returned.
+     */
+    @Override
+    public void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            for (Deque<Idle> entries : this.idle.values()) {
+                for (Idle i : entries) {
+                    destroy(i.codec);
+                }
+            }
+            this.idle.clear();
+            this.returned.signalAll();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private Object borrow(Key key) throws InterruptedException, MemoryLimitException {
+        long footprint;
+        this.lock.lock();
+        try {
+            ensureOpen();
+            evictIdle();
+
+            while (true) {
+                Deque<Idle> entries = this.idle.get(key);
+                if (entries != null && !entries.isEmpty()) {
+                    Object codec = entries.removeFirst().codec;
+                    if (entries.isEmpty()) {
+                        this.idle.remove(key);
+                    }
+                    this.hits++;
+                    this.leased.put(codec, key);
+                    return codec;
+                }
+
+                if (this.total >= this.maxTotal) {
+                    evictLeastRecentlyUsed();
+                }
+
+                if (this.total < this.maxTotal) {
+                    break;
+                }
+
+                this.returned.await();
+                ensureOpen();
+            }
+
+            // Claim the slot now, so that the cap is observed while creating the coder unlocked.
+            this.total++;
+            this.misses++;
+
+            // Make room in the budget with whatever is idle.
+            footprint = key.footprint(this.bufSize, this.decoderMemLimit);
+            while (footprint > this.budget.getAvailable()) {
+                if (!evictLeastRecentlyUsed()) {
+                    break;
+                }
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+
+        // The reservation may be queued, and so is made without holding the lock.
+        MemoryBudget.Reservation reservation = null;
+        Object codec = null;
+        try {
+            reservation = this.budget.reserve(footprint);
+            codec = key.create(this.bufSize, this.decoderMemLimit);
+        }
+        finally {
+            if (codec == null) {
+                if (reservation != null) {
+                    reservation.close();
+                }
+                this.lock.lock();
+                try {
+                    this.total--;
+                    this.returned.signalAll();
+                }
+                finally {
+                    this.lock.unlock();
+                }
+            }
+        }
+
+        this.lock.lock();
+        try {
+            this.reservations.put(codec, reservation);
+            if (this.closed) {
+                destroy(codec);
+                ensureOpen();
+            }
+            this.leased.put(codec, key);
+            return codec;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private Key unlease(Object codec) {
+        this.lock.lock();
+        try {
+            Key key = this.leased.remove(checkNotNull(codec, "codec argument"));
+            checkArgument(key != null, "codec was not leased from this pool");
+            return key;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void restore(Key key, Object codec, boolean reusable) {
+        this.lock.lock();
+        try {
+            if (reusable && !this.closed) {
+                Deque<Idle> entries = this.idle.get(key);
+                if (entries == null) {
+                    entries = new ArrayDeque<>();
+                    this.idle.put(key, entries);
+                }
+                entries.addFirst(new Idle(codec, System.nanoTime()));
+            }
+            else {
+                destroy(codec);
+            }
+            this.returned.signalAll();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** @return true if an idle coder was evicted */
+    private boolean evictLeastRecentlyUsed() {
+        Key oldestKey = null;
+        Idle oldest = null;
+        for (Map.Entry<Key, Deque<Idle>> entry : this.idle.entrySet()) {
+            Idle candidate = entry.getValue().peekLast();
+            if (candidate != null && (oldest == null || candidate.since < oldest.since)) {
+                oldest = candidate;
+                oldestKey = entry.getKey();
+            }
+        }
+        if (oldest != null) {
+            Deque<Idle> entries = this.idle.get(oldestKey);
+            entries.removeLast();
+            if (entries.isEmpty()) {
+                this.idle.remove(oldestKey);
+            }
+            destroy(oldest.codec);
+            this.evictions++;
+            return true;
+        }
+        return false;
+    }
+
+    private void destroy(Object codec) {
+        this.total--;
+        MemoryBudget.Reservation reservation = this.reservations.remove(codec);
+        if (reservation != null) {
+            reservation.close();
+        }
+        if (codec instanceof Encoder) {
+            Encoder encoder = (Encoder) codec;
+            if (!encoder.isEnded()) {
+                encoder.end();
+            }
+        }
+        else {
+            Decoder decoder = (Decoder) codec;
+            if (!decoder.isEnded()) {
+                decoder.end();
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("pool has been closed");
+        }
+    }
+
+    private static final class Idle {
+        private final Object codec;
+        private final long since;
+
+        private Idle(Object codec, long since) {
+            this.codec = codec;
+            this.since = since;
+        }
+    }
+
+    /** Coder configuration; Encoders have a filter chain and check, decoders a limit and flags. */
+    private static final class Key {
+        private final FilterChain filters;
+        private final Check check;
+        private final UnsignedLong memLimit;
+        private final EnumSet<Decoder.Flags> flags;
+
+        private Key(FilterChain filters, Check check, UnsignedLong memLimit, EnumSet<Decoder.Flags> flags) {
+            this.filters = filters;
+            this.check = check;
+            this.memLimit = memLimit;
+            this.flags = flags;
+        }
+
+        /** @return the projected native footprint of a coder for this key */
+        private long footprint(int bufSize, UnsignedLong decoderMemLimit) {
+            long buffers = 2L * bufSize;
+            if (this.filters != null) {
+                return this.filters.getEncoderMemoryUsage() + buffers;
+            }
+            // Decoders may use up to their limit; An unlimited one has nothing worth reserving
+            UnsignedLong limit = decoderLimit(decoderMemLimit);
+            if (limit.compareTo(UnsignedLong.valueOf(Long.MAX_VALUE - buffers)) >= 0) {
+                return buffers;
+            }
+            return limit.longValue() + buffers;
+        }
+
+        /**
+         * @return the memory usage limit for decoders of this key; The requested limit, lowered to
+         *         the pool's decoder limit, so that input requiring more fails with a
+         *         {@link MemoryLimitException}, rather than exceeding the budget
+         */
+        private UnsignedLong decoderLimit(UnsignedLong decoderMemLimit) {
+            return Ordering.natural().min(this.memLimit, decoderMemLimit);
+        }
+
+        private Object create(int bufSize, UnsignedLong decoderMemLimit) {
+            if (this.filters != null) {
+                return new Encoder(this.filters, this.check, bufSize);
+            }
+            return new Decoder(decoderLimit(decoderMemLimit), this.flags, bufSize);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return Objects.equal(this.filters, other.filters)
+                    && Objects.equal(this.check, other.check)
+                    && Objects.equal(this.memLimit, other.memLimit)
+                    && Objects.equal(this.flags, other.flags);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(this.filters, this.check, this.memLimit, this.flags);
+        }
+    }
+
+}
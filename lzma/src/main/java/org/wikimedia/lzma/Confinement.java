@@ -0,0 +1,53 @@
+package org.wikimedia.lzma;
+
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Debug-mode check that a codec is confined to one thread at a time. It is only ever invoked from
+ * {@code assert} statements, and so costs nothing unless assertions are enabled (-ea).
+ * 
+ * <pre>
+ * assert this.confinement.enter();
+ * try {
+ *     ...
+ * }
+ * finally {
+ *     assert this.confinement.exit();
+ * }
+ * </pre>
+ * 
+ * @author Eric Evans
+ *
+ */
+final class Confinement {
+
+    private final AtomicReference<Thread> owner = new AtomicReference<>();
+    private int depth;
+
+    /**
+     * @return true
+     * @throws ConcurrentModificationException
+     *             if another thread is inside a call on the same codec
+     */
+    boolean enter() {
+        Thread current = Thread.currentThread();
+        if (this.owner.get() != current && !this.owner.compareAndSet(null, current)) {
+            throw new ConcurrentModificationException(String.format(
+                    "codec used by %s while in use by %s (codecs are not thread-safe)",
+                    current,
+                    this.owner.get()));
+        }
+        this.depth++;
+        return true;
+    }
+
+    /** @return true */
+    boolean exit() {
+        if (--this.depth == 0) {
+            this.owner.set(null);
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,19 @@
+package org.wikimedia.lzma;
+
+/**
+ * Thrown when compressed input is corrupt, or ends before the end of the stream.
+ * 
+ * @author Eric Evans
+ *
+ */
+public class CorruptedInputException extends LzmaException {
+    private static final long serialVersionUID = 1L;
+
+    public CorruptedInputException(Return ret) {
+        super(ret);
+    }
+
+    public CorruptedInputException(String msg, Return ret) {
+        super(msg, ret);
+    }
+}
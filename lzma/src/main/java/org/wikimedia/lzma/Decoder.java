@@ -1,13 +1,21 @@
 package org.wikimedia.lzma;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.EnumSet;
 
 import com.google.common.primitives.UnsignedLong;
-import com.sun.jna.NativeLong;
-import com.sun.jna.Pointer;
 
 /**
+ * <p>
+ * Decoders are not thread-safe, and take no locks; An instance must be used by one thread at a
+ * time. Handing one between threads requires a happens-before edge, as provided by
+ * {@link CodecPool}, a concurrent queue, or an executor. With assertions enabled (-ea), concurrent
+ * use is detected, and results in a {@link java.util.ConcurrentModificationException}.
+ * </p>
  * 
  * @see Encoder
  * @author Eric Evans
@@ -29,14 +37,19 @@ public class Decoder {
         }
     }
 
-    private final int bufSize;
     private final Stream stream;
-    private final Pointer nextIn;
-    private final Pointer nextOut;
-    private final UnsignedLong memLimit;
+    private final Confinement confinement = new Confinement();
+    private final Format format;
+    private final FilterChain filters;
+    private UnsignedLong memLimit;
     private final EnumSet<Flags> flags;
+    private final MTOptions mt;
 
-    private ByteBuffer input;
+    private long bytesRead;
+    private long bytesWritten;
+    private boolean finish = false;
+    private boolean finished = false;
+    private boolean initialized = true;
 
     public Decoder() {
         this(UnsignedLong.MAX_VALUE, EnumSet.of(Flags.NONE));
@@ -47,49 +60,443 @@ public class Decoder {
     }
 
     public Decoder(UnsignedLong memLimit, EnumSet<Flags> flags, int bufSize) {
-        this.memLimit = memLimit;
+        this(flags, 1, memLimit, memLimit, bufSize);
+    }
+
+    public Decoder(EnumSet<Flags> flags, int threads, UnsignedLong memLimitThreading, UnsignedLong memLimitStop) {
+        this(flags, threads, memLimitThreading, memLimitStop, Encoder.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a multithreaded decoder (see: lzma_stream_decoder_mt). Blocks are decoded in
+     * parallel when their headers record their sizes, as is the case for the output of a
+     * multithreaded {@link Encoder}. When {@code threads} is 1 or less, or the loaded liblzma lacks
+     * multithreaded decoding (versions prior to 5.4), a single-threaded decoder limited to
+     * {@code memLimitStop} is created instead.
+     * 
+     * @param flags
+     *            decoder flags
+     * @param threads
+     *            the maximum number of worker threads
+     * @param memLimitThreading
+     *            the memory usage above which the decoder reduces the number of threads, down to
+     *            decoding in a single thread
+     * @param memLimitStop
+     *            the memory usage limit; Exceeding it results in a {@link MemoryLimitException}
+     * @param bufSize
+     *            the high-water mark of the internal input and output buffers, which grow as
+     *            needed, and are shrunk back to this size on reset
+     */
+    public Decoder(EnumSet<Flags> flags,
+            int threads,
+            UnsignedLong memLimitThreading,
+            UnsignedLong memLimitStop,
+            int bufSize) {
+        this(Format.XZ, null, flags, threads, memLimitThreading, memLimitStop, bufSize);
+    }
+
+    public Decoder(Format format, FilterChain filters) {
+        this(format, filters, UnsignedLong.MAX_VALUE, Encoder.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a decoder for the given container format. For {@link Format#RAW}, {@code filters}
+     * must be the chain the data was encoded with (see: lzma_raw_decoder), and {@code memLimit} is
+     * not enforced; For the other formats, {@code filters} is ignored (and may be null).
+     * 
+     * @throws IllegalArgumentException
+     *             if the filter chain is missing, or rejected by liblzma
+     */
+    public Decoder(Format format, FilterChain filters, UnsignedLong memLimit, int bufSize) {
+        this(format, filters, EnumSet.of(Flags.NONE), 1, memLimit, memLimit, bufSize);
+    }
+
+    private Decoder(Format format,
+            FilterChain filters,
+            EnumSet<Flags> flags,
+            int threads,
+            UnsignedLong memLimitThreading,
+            UnsignedLong memLimitStop,
+            int bufSize) {
+        checkArgument(memLimitThreading.compareTo(memLimitStop) <= 0, "memLimitThreading may not exceed memLimitStop");
+        checkArgument(!Format.RAW.equals(format) || filters != null, "raw decoding requires a filter chain");
+        this.format = checkNotNull(format, "format argument");
+        this.filters = filters;
+        this.memLimit = memLimitStop;
         this.flags = flags;
-        this.bufSize = bufSize;
-        this.stream = new Stream(this.bufSize);
-        this.nextIn = this.stream.next_in;
-        this.nextOut = this.stream.next_out;
-        CLibrary.lzma_stream_decoder(stream, this.memLimit.longValue(), getFlags(this.flags));
+        this.stream = new Stream(bufSize);
+        this.mt = format.equals(Format.XZ) && isMultithreadingSupported() && threads > 1 ? mtOptions(
+                flags,
+                threads,
+                memLimitThreading,
+                memLimitStop) : null;
+        init();
+    }
+
+    public void setInput(byte[] src) {
+        setInput(src, 0, src.length);
     }
 
+    /**
+     * Adds compressed input data. Input not yet consumed by a previous call to
+     * {@link Decoder#decode(byte[], int, int)} is retained, and {@code src} is appended to it.
+     * 
+     */
     public void setInput(byte[] src, int offset, int len) {
-        this.input = this.nextIn.getByteBuffer(0, this.bufSize);
-        input.put(src, offset, len);
+        checkNotNull(src, "src argument");
+        if (offset < 0 || len < 0 || offset > (src.length - len)) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        ensureReady();
+        this.stream.addInput(src, offset, len);
+    }
+
+    /**
+     * 
+     * @return true if the input buffer is empty, and {@link Decoder#setInput(byte[], int, int)}
+     *         should be called to add more input.
+     */
+    public boolean needsInput() {
+        return this.stream.availIn() <= 0;
     }
 
-    public int decode(byte[] dst, int offset, int len) {
-        this.input.flip();
-        this.stream.avail_in = new NativeLong(this.input.remaining());
-        this.stream.avail_out = new NativeLong(this.bufSize);
+    /**
+     * Indicates that no input remains beyond what has already been supplied. Subsequent calls to
+     * {@link Decoder#decode(byte[], int, int)} will throw a {@link CorruptedInputException} if the
+     * input ends before the end of the stream. This is also needed to end decoding when
+     * {@link Flags#CONCATENATED} is in effect.
+     */
+    public void finish() {
+        this.finish = true;
+    }
 
-        // Decode
-        int code = CLibrary.lzma_code(stream, Action.FINISH.getCode());
-        Return ret = Return.fromCode(code);
-        assert ret.equals(Return.STREAM_END); // FIXME: real error handling
+    public int decode(byte[] dst) throws IOException {
+        return decode(dst, 0, dst.length);
+    }
+
+    /**
+     * Decompresses input data, filling the supplied buffer with the results. Returns the actual
+     * number of bytes written to the buffer.
+     * 
+     * <p>
+     * Decoding proceeds until either the end of the stream is reached ({@link Decoder#finished()}
+     * becomes true), the input has been consumed ({@link Decoder#needsInput()} becomes true), or
+     * {@code dst} is full. Input and output may be supplied in chunks of any size.
+     * </p>
+     * 
+     * @param dst
+     *            the buffer to write decompressed data to
+     * @param offset
+     *            start offset of the data
+     * @param len
+     *            the maximum number of bytes to write to {@code dst}
+     * @return the number of decompressed bytes written to {@code dst}
+     * @throws CorruptedInputException
+     *             if the input is corrupt, or (after {@link Decoder#finish()}) truncated
+     * @throws FormatException
+     *             if the input is not in .xz format
+     * @throws MemoryLimitException
+     *             if decoding would exceed the configured memory limit
+     * @throws LzmaException
+     *             if liblzma reports any other error
+     */
+    public int decode(byte[] dst, int offset, int len) throws IOException {
+        checkNotNull(dst, "dst argument");
+        if (offset < 0 || len < 0 || offset > (dst.length - len)) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        assert this.confinement.enter();
+        try {
+            ensureReady();
+
+            if (this.finished) {
+                return 0;
+            }
+
+            Action action = this.finish ? Action.FINISH : Action.RUN;
+            int written = 0;
+            while (written < len) {
+                int window = this.stream.prepareOutput(len - written);
+                int availIn = this.stream.availIn();
+
+                int code = this.stream.code(action);
+
+                int produced = this.stream.drainOutput(window, dst, offset + written);
+                this.bytesRead += availIn - this.stream.availIn();
+                this.bytesWritten += produced;
+                written += produced;
+
+                if (isDone(code, action, produced < window)) {
+                    break;
+                }
+            }
+
+            return written;
+        }
+        finally {
+            assert this.confinement.exit();
+        }
+    }
+
+    /**
+     * Decompresses data from {@code src} directly into {@code dst}, without copying either through
+     * the decoder's internal buffers. The position of {@code src} is advanced past the input
+     * consumed, and that of {@code dst} past the output written. Otherwise, the semantics are those
+     * of {@link Decoder#decode(byte[], int, int)}, with {@code src} standing in for the input set by
+     * {@link Decoder#setInput(byte[], int, int)}.
+     * 
+     * @param src
+     *            a direct buffer of compressed data
+     * @param dst
+     *            a direct buffer to write decompressed data to
+     * @return the number of decompressed bytes written to {@code dst}
+     * @throws IllegalStateException
+     *             if input added by {@link Decoder#setInput(byte[], int, int)} has not been consumed
+     * @throws LzmaException
+     *             if liblzma reports an error (see {@link Decoder#decode(byte[], int, int)})
+     */
+    public int decode(ByteBuffer src, ByteBuffer dst) throws IOException {
+        checkNotNull(src, "src argument");
+        checkNotNull(dst, "dst argument");
+        checkArgument(src.isDirect() && dst.isDirect(), "src and dst must be direct buffers");
+
+        assert this.confinement.enter();
+        try {
+            ensureReady();
+            if (this.stream.availIn() > 0) {
+                throw new IllegalStateException("cannot decode from a buffer while input from setInput() is pending");
+            }
+
+            if (this.finished) {
+                return 0;
+            }
+
+            Action action = this.finish ? Action.FINISH : Action.RUN;
+            int start = dst.position();
+            do {
+                int availIn = src.remaining();
+                int availOut = dst.remaining();
 
-        int writeSize = this.bufSize - this.stream.avail_out.intValue();
-        ByteBuffer output = this.nextOut.getByteBuffer(0, writeSize);
-        output.get(dst, offset, writeSize);
+                this.stream.wrap(src, dst);
+                int code;
+                try {
+                    code = this.stream.code(action);
+                }
+                finally {
+                    this.stream.unwrap(src, dst);
+                }
 
-        return writeSize;
+                this.bytesRead += availIn - src.remaining();
+                this.bytesWritten += availOut - dst.remaining();
+
+                if (isDone(code, action, dst.hasRemaining())) {
+                    break;
+                }
+            } while (dst.hasRemaining());
+
+            return dst.position() - start;
+        }
+        finally {
+            assert this.confinement.exit();
+        }
     }
 
     public void end() {
+        this.initialized = false;
         CLibrary.lzma_end(this.stream);
     }
 
+    /** Readies the decoder for a new stream. */
     public void reset() {
-        synchronized (this.stream) {
-            this.stream.next_in = this.nextIn;
-            this.stream.next_out = this.nextOut;
-            CLibrary.lzma_stream_decoder(stream, this.memLimit.longValue(), getFlags(this.flags));
+        assert this.confinement.enter();
+        try {
+            this.finish = false;
+            this.finished = false;
+            this.stream.shrink();
+            init();
+            this.bytesRead = 0;
+            this.bytesWritten = 0;
+        }
+        finally {
+            assert this.confinement.exit();
         }
     }
 
+    /**
+     * @return true if {@link Decoder#end()} has been called
+     */
+    public boolean isEnded() {
+        return !this.initialized;
+    }
+
+    public Format getFormat() {
+        return this.format;
+    }
+
+    /**
+     * @return the memory currently used by liblzma for this decoder, in bytes (see: lzma_memusage);
+     *         This excludes the internal buffers
+     */
+    public long getMemoryUsage() {
+        ensureReady();
+        return CLibrary.lzma_memusage(this.stream);
+    }
+
+    /** @return the memory usage limit (see: lzma_memlimit_get) */
+    public UnsignedLong getMemoryLimit() {
+        ensureReady();
+        long limit = CLibrary.lzma_memlimit_get(this.stream);
+        // Zero if the decoder has no limit of its own (raw decoding)
+        return limit != 0 ? UnsignedLong.fromLongBits(limit) : this.memLimit;
+    }
+
+    /**
+     * Changes the memory usage limit, which then also applies after {@link Decoder#reset()}. After a
+     * {@link MemoryLimitException}, raising the limit allows decoding to continue.
+     * 
+     * @throws MemoryLimitException
+     *             if {@code memLimit} is less than the memory already in use
+     * @throws UnsupportedOperationException
+     *             if the format does not support a memory limit ({@link Format#RAW})
+     * @throws LzmaException
+     *             if liblzma reports another error (see: lzma_memlimit_set)
+     */
+    public void setMemoryLimit(UnsignedLong memLimit) throws LzmaException {
+        checkNotNull(memLimit, "memLimit argument");
+        ensureReady();
+        int code = CLibrary.lzma_memlimit_set(this.stream, memLimit.longValue());
+        Return ret = Return.fromCode(code);
+        if (ret == null) {
+            throw LzmaException.unrecognized(code);
+        }
+
+        switch (ret) {
+        case OK:
+            this.memLimit = memLimit;
+            if (this.mt != null) {
+                this.mt.memlimit_stop = memLimit.longValue();
+                if (UnsignedLong.fromLongBits(this.mt.memlimit_threading).compareTo(memLimit) > 0) {
+                    this.mt.memlimit_threading = memLimit.longValue();
+                }
+            }
+            return;
+        case PROG_ERROR:
+            throw new UnsupportedOperationException(String.format("%s decoding does not support a memory limit", this.format));
+        default:
+            throw LzmaException.fromReturn(ret);
+        }
+    }
+
+    /**
+     * @return true if this decoder decompresses using multiple threads
+     */
+    public boolean isMultithreaded() {
+        return this.mt != null;
+    }
+
+    /**
+     * @return true if the loaded liblzma supports multithreaded decoding
+     */
+    public static boolean isMultithreadingSupported() {
+        return CLibrary.isAvailable("lzma_stream_decoder_mt");
+    }
+
+    /**
+     * @return true if the end of the compressed stream has been reached
+     */
+    public boolean finished() {
+        return this.finished;
+    }
+
+    public long getBytesRead() {
+        return this.bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    /**
+     * @return the combined size of the internal input and output buffers, in bytes; They grow as
+     *         needed, and are shrunk back to the high-water mark on reset
+     */
+    public long getBufferCapacity() {
+        return this.stream.getBufferCapacity();
+    }
+
+    private void init() {
+        int code;
+        switch (this.format) {
+        case LZMA_ALONE:
+            code = CLibrary.lzma_alone_decoder(this.stream, this.memLimit.longValue());
+            break;
+        case RAW:
+            code = CLibrary.lzma_raw_decoder(this.stream, this.filters.toFilters());
+            break;
+        default:
+            if (this.mt != null) {
+                code = CLibrary.lzma_stream_decoder_mt(this.stream, this.mt);
+            }
+            else {
+                code = CLibrary.lzma_stream_decoder(this.stream, this.memLimit.longValue(), getFlags(this.flags));
+            }
+        }
+        Encoder.checkInit(code);
+    }
+
+    /**
+     * Interprets the result of a call to lzma_code.
+     * 
+     * @return true if no further progress can be made in this invocation of decode
+     */
+    private boolean isDone(int code, Action action, boolean outputRemaining) throws LzmaException {
+        Return ret = Return.fromCode(code);
+        if (ret == null) {
+            throw LzmaException.unrecognized(code);
+        }
+
+        switch (ret) {
+        case OK:
+            // Output space remaining means lzma_code stopped for want of input. When finishing,
+            // call again to have liblzma report whether the stream is truncated.
+            return outputRemaining && action.equals(Action.RUN);
+        case NO_CHECK:
+        case UNSUPPORTED_CHECK:
+        case GET_CHECK:
+            // Informational (see: Flags.TELL_NO_CHECK, Flags.TELL_UNSUPPORTED_CHECK, Flags.TELL_ANY_CHECK)
+            return false;
+        case STREAM_END:
+            this.finished = true;
+            return true;
+        case BUF_ERROR:
+            if (action.equals(Action.FINISH)) {
+                throw new CorruptedInputException("compressed input is truncated", ret);
+            }
+            return true;
+        default:
+            throw LzmaException.fromReturn(ret);
+        }
+    }
+
+    private void ensureReady() {
+        if (!this.initialized) {
+            throw new IllegalStateException("decoder has been deinitialized (instantiate a new one)");
+        }
+    }
+
+    private static MTOptions mtOptions(EnumSet<Flags> flags,
+            int threads,
+            UnsignedLong memLimitThreading,
+            UnsignedLong memLimitStop) {
+        MTOptions mt = new MTOptions();
+        mt.flags = getFlags(flags);
+        mt.threads = threads;
+        mt.memlimit_threading = memLimitThreading.longValue();
+        mt.memlimit_stop = memLimitStop.longValue();
+        return mt;
+    }
+
     static int getFlags(EnumSet<Flags> flags) {
         int res = 0;
         for (Flags f : flags) {
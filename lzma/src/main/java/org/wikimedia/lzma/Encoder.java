@@ -1,13 +1,12 @@
 package org.wikimedia.lzma;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
-import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.Collections;
 
-import com.sun.jna.NativeLong;
-import com.sun.jna.Pointer;
 
 /**
  * Usage:
@@ -19,22 +18,32 @@ import com.sun.jna.Pointer;
  * byte[] output = new byte[512];
  * 
  * // Compress
- * try (Encoder encoder = new Encoder()) {
- *     encoder.setInput(input);
- *     encoder.finish();
- *     int encodedLength = encoder.encode(output);
+ * Encoder encoder = new Encoder();
+ * encoder.setInput(input);
+ * encoder.finish();
+ * int encodedLength = 0;
+ * while (!encoder.finished()) {
+ *     encodedLength += encoder.encode(output, encodedLength, output.length - encodedLength);
  * }
+ * encoder.end();
  * 
  * // Decompress
- * try (Decoder decoder = new Decoder()) {
- *     decoder.setInput(output, 0, encodedLength);
- *     byte[] result = new byte[512];
- *     int resultLength = decoder.decode(result);
- * }
+ * Decoder decoder = new Decoder();
+ * decoder.setInput(output, 0, encodedLength);
+ * byte[] result = new byte[512];
+ * int resultLength = decoder.decode(result, 0, result.length);
+ * decoder.end();
  * </pre>
  * 
  * </blockquote>
  * 
+ * <p>
+ * Encoders are not thread-safe, and take no locks; An instance must be used by one thread at a
+ * time. Handing one between threads requires a happens-before edge, as provided by
+ * {@link CodecPool}, a concurrent queue, or an executor. With assertions enabled (-ea), concurrent
+ * use is detected, and results in a {@link java.util.ConcurrentModificationException}.
+ * </p>
+ * 
  * @see Decoder
  * @author Eric Evans
  *
@@ -57,19 +66,24 @@ public class Encoder {
         }
     }
 
-    /** Default internal buffer size */
+    /**
+     * Default high-water mark of the internal buffers; They start small and grow as needed, and are
+     * shrunk back to this size on reset.
+     */
     public static final int DEFAULT_BUFFER_SIZE = 5 * 1024 * 1024;
 
-    private final int bufSize;
     private final Stream stream;
-    private final Options options;
+    private final Confinement confinement = new Confinement();
+    private final Format format;
+    private final FilterChain filters;
     private final Check check;
+    private final MTOptions mt;
+    // The filter chain mt points to, which must stay reachable while liblzma reads it
+    private Filter mtFilters;
 
-    private final Pointer nextIn;
-    private final Pointer nextOut;
-    private ByteBuffer input;
     private long bytesRead;
     private long bytesWritten;
+    private Action pending = null;
     private boolean finish = false;
     private boolean finished = false;
     private boolean initialized = true;
@@ -91,34 +105,126 @@ public class Encoder {
     }
 
     public Encoder(Options options, Check check, int internalBufferSize) {
-        this.bufSize = internalBufferSize;
-        this.options = options;
-        this.check = check;
-        this.stream = new Stream(this.bufSize);
-        this.nextIn = this.stream.next_in;
-        this.nextOut = this.stream.next_out;
-        this.input = null;
-        CLibrary.lzma_stream_encoder(this.stream, filterChain(this.options), this.check.getCode());
+        this(defaultChain(options), check, internalBufferSize);
+    }
+
+    public Encoder(Options options, Check check, int threads, long blockSize, int timeout) {
+        this(options, check, threads, blockSize, timeout, DEFAULT_BUFFER_SIZE);
+    }
+
+    public Encoder(Options options, Check check, int threads, long blockSize, int timeout, int internalBufferSize) {
+        this(defaultChain(options), check, threads, blockSize, timeout, internalBufferSize);
+    }
+
+    public Encoder(FilterChain filters, Check check) {
+        this(filters, check, DEFAULT_BUFFER_SIZE);
+    }
+
+    public Encoder(FilterChain filters, Check check, int internalBufferSize) {
+        this(filters, check, 1, 0, 0, internalBufferSize);
+    }
+
+    public Encoder(FilterChain filters, Check check, int threads, long blockSize, int timeout) {
+        this(filters, check, threads, blockSize, timeout, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a multithreaded encoder (see: lzma_stream_encoder_mt). Input is split into blocks of
+     * {@code blockSize} uncompressed bytes that are compressed in parallel, and independently of one
+     * another. When {@code threads} is 1 or less, or the loaded liblzma lacks multithreading
+     * support, a single-threaded encoder is created instead.
+     * 
+     * @param filters
+     *            the filter chain (ending with LZMA2)
+     * @param check
+     *            the integrity check type
+     * @param threads
+     *            the number of worker threads (see: {@link CLibrary#lzma_cputhreads()})
+     * @param blockSize
+     *            the uncompressed size of each block, or 0 to have liblzma choose (three times the
+     *            dictionary size, but no less than 1 MiB)
+     * @param timeout
+     *            the maximum time (in milliseconds) that encode may block, or 0 for no limit; When
+     *            it elapses, encode returns what output is available (possibly none)
+     * @param internalBufferSize
+     *            the high-water mark of the internal input and output buffers, which grow as
+     *            needed, and are shrunk back to this size on reset
+     * @throws IllegalArgumentException
+     *             if liblzma rejects the filter chain
+     */
+    public Encoder(FilterChain filters, Check check, int threads, long blockSize, int timeout, int internalBufferSize) {
+        this(Format.XZ, filters, check, threads, blockSize, timeout, internalBufferSize);
+    }
+
+    public Encoder(Format format, FilterChain filters) {
+        this(format, filters, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates an encoder for the given container format. For {@link Format#XZ}, this is equivalent
+     * to {@code Encoder(filters, Check.NONE, internalBufferSize)}; {@link Format#LZMA_ALONE}
+     * requires a chain of LZMA1 alone (see: lzma_alone_encoder), and {@link Format#RAW} writes the
+     * output of the filter chain with no container at all (see: lzma_raw_encoder).
+     * 
+     * @throws IllegalArgumentException
+     *             if the filter chain is unsuitable for the format, or rejected by liblzma
+     */
+    public Encoder(Format format, FilterChain filters, int internalBufferSize) {
+        this(format, filters, Check.NONE, 1, 0, 0, internalBufferSize);
+    }
+
+    private Encoder(Format format,
+            FilterChain filters,
+            Check check,
+            int threads,
+            long blockSize,
+            int timeout,
+            int internalBufferSize) {
+        checkArgument(blockSize >= 0, "blockSize must be non-negative");
+        checkArgument(timeout >= 0, "timeout must be non-negative");
+        this.format = checkNotNull(format, "format argument");
+        this.filters = checkNotNull(filters, "filters argument");
+        this.check = checkNotNull(check, "check argument");
+        if (format.equals(Format.LZMA_ALONE)) {
+            checkArgument(
+                    filters.getIds().equals(Collections.singletonList(Filter.IDs.FILTER_LZMA1)),
+                    "the .lzma format requires a chain of LZMA1 alone");
+        }
+        checkArgument(
+                format.equals(Format.RAW) || filters.getLzmaOptions().preset_dict == null,
+                "preset dictionaries require Format.RAW");
+        this.stream = new Stream(internalBufferSize);
+        this.mt = format.equals(Format.XZ) && isMultithreadingSupported() && threads > 1 ? mtOptions(
+                threads,
+                blockSize,
+                timeout,
+                check) : null;
+        init();
     }
 
     public void setInput(byte[] src) {
         setInput(src, 0, src.length);
     }
 
+    /**
+     * Adds input data for compression. Input not yet consumed by a previous call to
+     * {@link Encoder#encode(byte[], int, int, Flush)} is retained, and {@code src} is appended to it.
+     * 
+     * @throws IllegalStateException
+     *             if a flush (or finish) is in progress; the input may not be changed until
+     *             {@link Encoder#encode(byte[], int, int, Flush)} has completed it
+     */
     public void setInput(byte[] src, int offset, int len) {
         checkNotNull(src, "src argument");
         if (offset < 0 || len < 0 || offset > (src.length - len)) {
             throw new ArrayIndexOutOfBoundsException();
         }
-        if (len > this.bufSize) {
-            throw new BufferOverflowException();
-        }
-        synchronized (this.stream) {
-            ensureReady();
-            this.input = this.nextIn.getByteBuffer(0, this.bufSize);
-            this.input.put(src, offset, len);
-            this.input.flip();
+        ensureReady();
+        if (this.pending != null) {
+            throw new IllegalStateException("cannot add input until the pending flush has completed");
         }
+        this.stream.addInput(src, offset, len);
+        this.stream.expectOutput(outputBound(this.stream.availIn()));
     }
 
     /**
@@ -127,15 +233,16 @@ public class Encoder {
      *         should be called to add more input.
      */
     public boolean needsInput() {
-        synchronized (this.stream) {
-            return this.input == null || this.input.remaining() <= 0;
-        }
+        return this.stream.availIn() <= 0;
     }
 
+    /**
+     * Indicates that compression should end with the current contents of the input buffer. Once
+     * called, {@link Encoder#encode(byte[], int, int, Flush)} should be invoked until
+     * {@link Encoder#finished()} returns true.
+     */
     public void finish() {
-        synchronized (this.stream) {
-            this.finish = true;
-        }
+        this.finish = true;
     }
 
     public int encode(byte[] dst) throws IOException {
@@ -151,13 +258,18 @@ public class Encoder {
      * number of bytes written to the buffer.
      *
      * <p>
-     * Note: This method is incomplete, and as a result:
-     * <ol>
-     * <li>The flush mode is currently ignored</li>
-     * <li>{@link Encoder#finish()} must be invoked before calling {@link Encoder#encode(...)}</li>
-     * <li>All of the data corresponding to the input will be flushed to {@code dst} at once.</li>
-     * <li>The encoder must be reset in between invocations</li>
-     * </ol>
+     * With {@link Flush#NONE}, compression proceeds until either the input has been consumed (a
+     * return value less than {@code len} with {@link Encoder#needsInput()} true), or {@code dst} is
+     * full. A {@link Flush#SYNC} or {@link Flush#FULL} flush (as well as {@link Encoder#finish()})
+     * is carried out over as many invocations as it takes to drain the output; Until a return value
+     * less than {@code len} signals that it has completed, the same flush mode is used regardless of
+     * the {@code flush} argument, and no further input may be added.
+     * </p>
+     *
+     * <p>
+     * Note: liblzma's BCJ filters (including the x86 filter in the chain used when only
+     * {@link Options} are given) do not support {@link Flush#SYNC}; Attempting it results in an
+     * {@link UnsupportedOptionsException}.
      * </p>
      *
      * @param dst
@@ -169,124 +281,320 @@ public class Encoder {
      * @param flush
      *            the compression flush mode
      * @return the number of compressed bytes written to {@code dst}
-     * @throws IOException
+     * @throws LzmaException
+     *             if liblzma reports an error
      */
     public int encode(byte[] dst, int offset, int len, Flush flush) throws IOException {
         checkNotNull(dst, "dst argument");
+        checkNotNull(flush, "flush argument");
         if (offset < 0 || len < 0 || offset > (dst.length - len)) {
             throw new ArrayIndexOutOfBoundsException();
         }
-        if (len > this.bufSize) {
-            throw new BufferOverflowException();
-        }
 
-        Action action = this.finish ? Action.FINISH : flush.toAction();
-
-        // TODO: implement sync modes
-        if (!action.equals(Action.FINISH)) {
-            throw new UnsupportedOperationException("you must invoke finish() prior to calling encode()");
-        }
-
-        synchronized (this.stream) {
+        assert this.confinement.enter();
+        try {
             ensureReady();
-            int availIn = this.input.remaining();
-            this.stream.avail_in = new NativeLong(availIn);
-            this.stream.avail_out = new NativeLong(this.bufSize);
-
-            // Encode
-            Return ret = Return.fromCode(CLibrary.lzma_code(stream, action.getCode()));
-            int writeSize = this.bufSize - this.stream.avail_out.intValue();
-
-            // TODO: implement sync modes
-            if (len < writeSize) {
-                throw new ArrayIndexOutOfBoundsException(String.format(
-                        "insufficient space to write compressed data (given %d bytes, needed %d)",
-                        len,
-                        writeSize));
+
+            if (this.finished) {
+                return 0;
             }
 
-            // XXX: Since (for the time being) we're expecting to compress all of our input in one
-            // shot, there must have been sufficient room in the buffer to accommodate all output.
-            if (stream.avail_out.intValue() == 0) {
-                throw new BufferOverflowException();
+            Action action = nextAction(flush);
+            int written = 0;
+            while (written < len) {
+                int window = this.stream.prepareOutput(len - written);
+                int availIn = this.stream.availIn();
+
+                int code = this.stream.code(action);
+
+                int produced = this.stream.drainOutput(window, dst, offset + written);
+                this.bytesRead += availIn - this.stream.availIn();
+                this.bytesWritten += produced;
+                written += produced;
+
+                if (isDone(code, action, produced < window)) {
+                    break;
+                }
             }
 
-            this.nextOut.getByteBuffer(0, this.bufSize).get(dst, offset, writeSize);
+            return written;
+        }
+        finally {
+            assert this.confinement.exit();
+        }
+    }
 
-            switch (ret) {
-            case OK:
-                throw new IllegalStateException("failed to reach end of stream");
-            case STREAM_END:
-                this.finished = true;
-                break;
-            default:
-                throw new IOException(ret.getMessage());
+    public int encode(ByteBuffer src, ByteBuffer dst) throws IOException {
+        return encode(src, dst, Flush.NONE);
+    }
+
+    /**
+     * Compresses data from {@code src} directly into {@code dst}, without copying either through the
+     * encoder's internal buffers. The position of {@code src} is advanced past the input consumed,
+     * and that of {@code dst} past the output written. Otherwise, the semantics are those of
+     * {@link Encoder#encode(byte[], int, int, Flush)}, with {@code src} standing in for the input
+     * set by {@link Encoder#setInput(byte[], int, int)}; When a flush is in progress, {@code src}
+     * must be passed back with its remaining contents unchanged.
+     * 
+     * @param src
+     *            a direct buffer of data to compress
+     * @param dst
+     *            a direct buffer to write compressed data to
+     * @param flush
+     *            the compression flush mode
+     * @return the number of compressed bytes written to {@code dst}
+     * @throws IllegalStateException
+     *             if input added by {@link Encoder#setInput(byte[], int, int)} has not been consumed
+     * @throws LzmaException
+     *             if liblzma reports an error
+     */
+    public int encode(ByteBuffer src, ByteBuffer dst, Flush flush) throws IOException {
+        checkNotNull(src, "src argument");
+        checkNotNull(dst, "dst argument");
+        checkNotNull(flush, "flush argument");
+        checkArgument(src.isDirect() && dst.isDirect(), "src and dst must be direct buffers");
+
+        assert this.confinement.enter();
+        try {
+            ensureReady();
+            if (this.stream.availIn() > 0) {
+                throw new IllegalStateException("cannot encode from a buffer while input from setInput() is pending");
             }
 
-            this.bytesRead += availIn - this.stream.avail_in.intValue();
-            this.bytesWritten += writeSize;
+            if (this.finished) {
+                return 0;
+            }
 
-            return writeSize;
+            Action action = nextAction(flush);
+            int start = dst.position();
+            do {
+                int availIn = src.remaining();
+                int availOut = dst.remaining();
+
+                this.stream.wrap(src, dst);
+                int code;
+                try {
+                    code = this.stream.code(action);
+                }
+                finally {
+                    this.stream.unwrap(src, dst);
+                }
+
+                this.bytesRead += availIn - src.remaining();
+                this.bytesWritten += availOut - dst.remaining();
+
+                if (isDone(code, action, dst.hasRemaining())) {
+                    break;
+                }
+            } while (dst.hasRemaining());
+
+            return dst.position() - start;
+        }
+        finally {
+            assert this.confinement.exit();
         }
     }
 
     /** Readies the encoder for a new set of input data. */
     public void reset() {
-        synchronized (this.stream) {
+        assert this.confinement.enter();
+        try {
+            this.finish = false;
             this.finished = false;
-            this.stream.next_in = this.nextIn;
-            this.stream.next_out = this.nextOut;
-            CLibrary.lzma_stream_encoder(this.stream, filterChain(this.options), this.check.getCode());
-            this.input = null;
-            this.stream.avail_in = new NativeLong(0);
-            this.stream.avail_out = new NativeLong(this.bufSize);
+            this.pending = null;
+            this.stream.shrink();
+            init();
             this.bytesRead = 0;
             this.bytesWritten = 0;
         }
+        finally {
+            assert this.confinement.exit();
+        }
     }
 
     public void end() {
-        synchronized (this.stream) {
-            this.initialized = false;
-            CLibrary.lzma_end(this.stream);
-        }
+        this.initialized = false;
+        CLibrary.lzma_end(this.stream);
+    }
+
+    /**
+     * @return the memory used by liblzma for this encoder, in bytes (see: lzma_memusage); This
+     *         excludes the internal buffers. Where liblzma does not report the usage of an encoder,
+     *         the estimate for its filter chain is returned instead.
+     */
+    public long getMemoryUsage() {
+        ensureReady();
+        long usage = CLibrary.lzma_memusage(this.stream);
+        return usage != 0 ? usage : this.filters.getEncoderMemoryUsage();
+    }
+
+    /**
+     * @return true if this encoder compresses using multiple threads
+     */
+    public boolean isMultithreaded() {
+        return this.mt != null;
+    }
+
+    /**
+     * @return true if the loaded liblzma supports multithreaded encoding
+     */
+    public static boolean isMultithreadingSupported() {
+        return CLibrary.isAvailable("lzma_stream_encoder_mt");
+    }
+
+    /**
+     * @return true if {@link Encoder#end()} has been called
+     */
+    public boolean isEnded() {
+        return !this.initialized;
     }
 
     public boolean finished() {
-        synchronized (this.stream) {
-            return this.finished;
-        }
+        return this.finished;
     }
 
     public long getBytesRead() {
-        synchronized (this.stream) {
-            return this.bytesRead;
-        }
+        return this.bytesRead;
     }
 
     public long getBytesWritten() {
-        synchronized (this.stream) {
-            return this.bytesWritten;
+        return this.bytesWritten;
+    }
+
+    /**
+     * @return the combined size of the internal input and output buffers, in bytes; They grow as
+     *         needed, and are shrunk back to the high-water mark on reset
+     */
+    public long getBufferCapacity() {
+        return this.stream.getBufferCapacity();
+    }
+
+    /** @return the filter chain this encoder compresses with */
+    public FilterChain getFilterChain() {
+        return this.filters;
+    }
+
+    public Check getCheck() {
+        return this.check;
+    }
+
+    public Format getFormat() {
+        return this.format;
+    }
+
+    private void init() {
+        int code;
+        switch (this.format) {
+        case LZMA_ALONE:
+            code = CLibrary.lzma_alone_encoder(this.stream, this.filters.getLzmaOptions());
+            break;
+        case RAW:
+            code = CLibrary.lzma_raw_encoder(this.stream, this.filters.toFilters());
+            break;
+        default:
+            Filter filters = this.filters.toFilters();
+            if (this.mt != null) {
+                this.mtFilters = filters;
+                this.mt.filters = filters.getPointer();
+                code = CLibrary.lzma_stream_encoder_mt(this.stream, this.mt);
+            }
+            else {
+                code = CLibrary.lzma_stream_encoder(this.stream, filters, this.check.getCode());
+            }
         }
+        checkInit(code);
     }
 
-    private void ensureReady() {
-        synchronized (this.stream) {
-            if (!this.initialized) {
-                throw new IllegalStateException("encoder has been deinitialized (instantiate a new one)");
+    /**
+     * Verifies the result of initializing a coder.
+     * 
+     * @throws IllegalArgumentException
+     *             if liblzma rejected the options (including the filter chain); During
+     *             initialization, PROG_ERROR also indicates invalid arguments
+     * @throws IllegalStateException
+     *             if initialization failed for any other reason
+     */
+    static void checkInit(int code) {
+        Return ret = Return.fromCode(code);
+        if (Return.OK.equals(ret)) {
+            return;
+        }
+        String msg = ret != null ? ret.getMessage() : String.format("unrecognized return code from liblzma: %d", code);
+        if (Return.OPTIONS_ERROR.equals(ret) || Return.PROG_ERROR.equals(ret)) {
+            throw new IllegalArgumentException(msg);
+        }
+        throw new IllegalStateException(msg);
+    }
+
+    private Action nextAction(Flush flush) {
+        Action action = this.pending;
+        if (action == null) {
+            action = this.finish ? Action.FINISH : flush.toAction();
+        }
+
+        // After the first SYNC_FLUSH, FULL_FLUSH, or FINISH, liblzma requires that the same action
+        // be repeated (with unchanged input) until it signals completion with STREAM_END.
+        this.pending = action.equals(Action.RUN) ? null : action;
+        return action;
+    }
+
+    /**
+     * Interprets the result of a call to lzma_code.
+     * 
+     * @return true if no further progress can be made in this invocation of encode
+     */
+    private boolean isDone(int code, Action action, boolean outputRemaining) throws LzmaException {
+        Return ret = Return.fromCode(code);
+        if (ret == null) {
+            throw LzmaException.unrecognized(code);
+        }
+
+        switch (ret) {
+        case OK:
+            // Output space remaining means lzma_code stopped for want of input.
+            return outputRemaining;
+        case STREAM_END:
+            this.pending = null;
+            if (action.equals(Action.FINISH)) {
+                this.finished = true;
             }
+            return true;
+        case BUF_ERROR:
+            // No progress is possible without more input (or output space); Not fatal.
+            return true;
+        default:
+            throw LzmaException.fromReturn(ret);
+        }
+    }
+
+    private void ensureReady() {
+        if (!this.initialized) {
+            throw new IllegalStateException("encoder has been deinitialized (instantiate a new one)");
         }
     }
 
-    private static Filter filterChain(Options options) {
-        Filter filter = new Filter();
-        filter.id = Filter.IDs.FILTER_X86;
-        filter.options = null;
-        Filter[] filters = (Filter[]) filter.toArray(3);
-        filters[1].id = Filter.IDs.FILTER_LZMA2;
-        filters[1].options = options.getPointer();
-        filters[2].id = Filter.IDs.VLI_UNKNOWN;
-        filters[2].options = null;
-        return filter;
+    /** The chain used when only LZMA2 options are specified: x86 BCJ, followed by LZMA2 */
+    static FilterChain defaultChain(Options options) {
+        return FilterChain.builder().x86().lzma2(options).build();
+    }
+
+    /**
+     * The most output {@code size} bytes of input can compress to, as computed by
+     * lzma_stream_buffer_bound (see {@link Lzma#maxCompressedSize(long)}), but without the native
+     * call, and the boxing it entails on every {@link #setInput(byte[], int, int)}: Incompressible
+     * LZMA2 is stored in chunks of at most 64 KiB, with a 3 byte header each, and the block and
+     * stream headers, check, and index add at most 144 bytes.
+     */
+    private static long outputBound(long size) {
+        return size + ((size + 0xFFFF) >>> 16) * 3 + 144;
+    }
+
+    private static MTOptions mtOptions(int threads, long blockSize, int timeout, Check check) {
+        MTOptions mt = new MTOptions();
+        mt.threads = threads;
+        mt.block_size = blockSize;
+        mt.timeout = timeout;
+        mt.check = check.getCode();
+        return mt;
     }
 }
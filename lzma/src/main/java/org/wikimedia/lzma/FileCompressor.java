@@ -0,0 +1,189 @@
+package org.wikimedia.lzma;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+
+import com.google.common.primitives.UnsignedLong;
+
+/**
+ * Compresses and decompresses whole files to and from .xz, without copying through the heap.
+ *
+ * <p>
+ * The source file is memory-mapped, a window at a time, and the mapped regions passed to liblzma
+ * directly as input (see {@link Encoder#encode(ByteBuffer, ByteBuffer)}); Output is produced into
+ * a direct buffer, and written from there to the destination file. Memory use is bounded by the
+ * window size (address space, mostly backed by the page cache) and the output buffer size,
+ * regardless of the size of the file. Windows are limited to less than 2 GiB, by
+ * {@link FileChannel#map(FileChannel.MapMode, long, long)}.
+ * </p>
+ *
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * FileCompressor.compress(Paths.get("dump.xml"), Paths.get("dump.xml.xz"));
+ * FileCompressor.decompress(Paths.get("dump.xml.xz"), Paths.get("dump.xml"));
+ * </pre>
+ * </p>
+ *
+ * @author Eric Evans
+ *
+ */
+public final class FileCompressor {
+
+    /** Default size of the regions of the source file mapped at once */
+    public static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    /** Size of the direct buffer output is written through */
+    private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+
+    /** Size of the codecs' internal buffers; Unused, as all data passes through direct buffers */
+    private static final int INTERNAL_BUFFER_SIZE = 4096;
+
+    private FileCompressor() {
+    }
+
+    /**
+     * Compresses {@code src} to {@code dst} (replacing it, if it exists), with
+     * {@link Lzma#DEFAULT_FILTERS} and {@link Lzma#DEFAULT_CHECK}.
+     *
+     * @return the size of the compressed file
+     */
+    public static long compress(Path src, Path dst) throws IOException {
+        return compress(src, dst, Lzma.DEFAULT_FILTERS, Lzma.DEFAULT_CHECK);
+    }
+
+    public static long compress(Path src, Path dst, FilterChain filters, Check check) throws IOException {
+        return compress(src, dst, filters, check, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Compresses {@code src} to {@code dst} (replacing it, if it exists).
+     *
+     * @param windowSize
+     *            the size of the regions of {@code src} mapped at once
+     * @return the size of the compressed file
+     * @throws LzmaException
+     *             if liblzma reports an error
+     */
+    public static long compress(Path src, Path dst, FilterChain filters, Check check, int windowSize) throws IOException {
+        checkNotNull(src, "src argument");
+        checkNotNull(dst, "dst argument");
+        checkArgument(windowSize > 0, "windowSize must be positive");
+
+        Encoder encoder = new Encoder(filters, check, INTERNAL_BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                FileChannel out = create(dst)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+            long size = in.size();
+            long position = 0;
+            do {
+                long window = Math.min(windowSize, size - position);
+                ByteBuffer mapped = map(in, position, window);
+                position += window;
+                if (position == size) {
+                    encoder.finish();
+                }
+                while (mapped.hasRemaining() || (position == size && !encoder.finished())) {
+                    encoder.encode(mapped, buf);
+                    drain(buf, out);
+                }
+            } while (position < size);
+            return encoder.getBytesWritten();
+        }
+        finally {
+            encoder.end();
+        }
+    }
+
+    /**
+     * Decompresses {@code src} to {@code dst} (replacing it, if it exists), with no memory usage
+     * limit.
+     *
+     * @return the size of the decompressed file
+     */
+    public static long decompress(Path src, Path dst) throws IOException {
+        return decompress(src, dst, UnsignedLong.MAX_VALUE);
+    }
+
+    public static long decompress(Path src, Path dst, UnsignedLong memLimit) throws IOException {
+        return decompress(src, dst, memLimit, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Decompresses {@code src} to {@code dst} (replacing it, if it exists). As with xz, a file of
+     * concatenated .xz streams is decompressed in its entirety.
+     *
+     * @param windowSize
+     *            the size of the regions of {@code src} mapped at once
+     * @return the size of the decompressed file
+     * @throws CorruptedInputException
+     *             if {@code src} is corrupt or truncated
+     * @throws FormatException
+     *             if {@code src} is not in .xz format
+     * @throws MemoryLimitException
+     *             if decoding would exceed {@code memLimit}
+     */
+    public static long decompress(Path src, Path dst, UnsignedLong memLimit, int windowSize) throws IOException {
+        checkNotNull(src, "src argument");
+        checkNotNull(dst, "dst argument");
+        checkArgument(windowSize > 0, "windowSize must be positive");
+
+        Decoder decoder = new Decoder(memLimit, EnumSet.of(Decoder.Flags.CONCATENATED), INTERNAL_BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                FileChannel out = create(dst)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+            long size = in.size();
+            long position = 0;
+            do {
+                long window = Math.min(windowSize, size - position);
+                ByteBuffer mapped = map(in, position, window);
+                position += window;
+                if (position == size) {
+                    decoder.finish();
+                }
+                while ((mapped.hasRemaining() || position == size) && !decoder.finished()) {
+                    decoder.decode(mapped, buf);
+                    drain(buf, out);
+                }
+            } while (position < size);
+            return decoder.getBytesWritten();
+        }
+        finally {
+            decoder.end();
+        }
+    }
+
+    /** Maps a region of {@code channel}; Empty regions are not mapped to a direct buffer by the JDK. */
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        if (size == 0) {
+            return ByteBuffer.allocateDirect(0);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    private static FileChannel create(Path path) throws IOException {
+        return FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    /** Writes the contents of {@code buf} to {@code out}, and clears it. */
+    private static void drain(ByteBuffer buf, FileChannel out) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+}
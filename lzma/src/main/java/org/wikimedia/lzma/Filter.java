@@ -6,11 +6,59 @@ import java.util.List;
 import com.sun.jna.Pointer;
 import com.sun.jna.Structure;
 
+/**
+ * analog to lzma_filter (see: /usr/include/lzma/filter.h)
+ * 
+ * @see FilterChain
+ */
 public class Filter extends Structure {
     public static class IDs {
-        public static long FILTER_X86    = 0x0000000000000004L;
-        public static long FILTER_LZMA2  = 0x0000000000000021L;
-        public static long VLI_UNKNOWN   = 0xffffffffffffffffL;  // UINT64_MAX
+        public static long FILTER_LZMA1    = 0x4000000000000001L;
+        public static long FILTER_LZMA2    = 0x0000000000000021L;
+        public static long FILTER_DELTA    = 0x0000000000000003L;
+        public static long FILTER_X86      = 0x0000000000000004L;
+        public static long FILTER_POWERPC  = 0x0000000000000005L;
+        public static long FILTER_IA64     = 0x0000000000000006L;
+        public static long FILTER_ARM      = 0x0000000000000007L;
+        public static long FILTER_ARMTHUMB = 0x0000000000000008L;
+        public static long FILTER_SPARC    = 0x0000000000000009L;
+        public static long FILTER_ARM64    = 0x000000000000000AL;
+        public static long VLI_UNKNOWN     = 0xffffffffffffffffL;  // UINT64_MAX
+    }
+
+    /** analog to lzma_options_delta (see: /usr/include/lzma/delta.h) */
+    public static class DeltaOptions extends Structure {
+        public int type; // enum
+        public int dist;
+        public int reserved_int1;
+        public int reserved_int2;
+        public int reserved_int3;
+        public int reserved_int4;
+        public Pointer reserved_ptr1;
+        public Pointer reserved_ptr2;
+
+        @Override
+        protected List<String> getFieldOrder() {
+            return Arrays.asList(new String[] {
+                    "type",
+                    "dist",
+                    "reserved_int1",
+                    "reserved_int2",
+                    "reserved_int3",
+                    "reserved_int4",
+                    "reserved_ptr1",
+                    "reserved_ptr2" });
+        }
+    }
+
+    /** analog to lzma_options_bcj (see: /usr/include/lzma/bcj.h) */
+    public static class BCJOptions extends Structure {
+        public int start_offset;
+
+        @Override
+        protected List<String> getFieldOrder() {
+            return Arrays.asList(new String[] { "start_offset" });
+        }
     }
 
     public long id;
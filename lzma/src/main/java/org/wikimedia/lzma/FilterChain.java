@@ -0,0 +1,278 @@
+package org.wikimedia.lzma;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.sun.jna.Structure;
+
+/**
+ * An immutable chain of filters, ending with LZMA1 or LZMA2 (see: lzma_filter).
+ * 
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * // Delta filter for 16-bit samples, followed by LZMA2 with preset 6
+ * FilterChain chain = FilterChain.builder().delta(2).lzma2(Options.fromPreset(6)).build();
+ * Encoder encoder = new Encoder(chain, Check.CRC64);
+ * </pre>
+ * </p>
+ * 
+ * <p>
+ * The branch/call/jump (BCJ) filters improve the compression of executable code for a given
+ * architecture, but waste CPU (and can hurt the compression ratio) for other data. They also do
+ * not support {@link Encoder.Flush#SYNC}.
+ * </p>
+ * 
+ * @author Eric Evans
+ *
+ */
+public final class FilterChain {
+
+    /** Maximum number of filters in a chain (see: LZMA_FILTERS_MAX) */
+    public static final int MAX_FILTERS = 4;
+
+    private final List<Element> elements;
+
+    private FilterChain(List<Element> elements) {
+        this.elements = Collections.unmodifiableList(elements);
+    }
+
+    /** @return a chain of LZMA2 alone, using the options of {@code preset} */
+    public static FilterChain lzma2(int preset) {
+        return builder().lzma2(Options.fromPreset(preset)).build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** @return the filter IDs that make up the chain, in order (see: {@link Filter.IDs}) */
+    public List<Long> getIds() {
+        List<Long> ids = new ArrayList<>();
+        for (Element e : this.elements) {
+            ids.add(e.id);
+        }
+        return ids;
+    }
+
+    /**
+     * @return an estimate of the memory liblzma requires to encode with this chain, in bytes (see:
+     *         lzma_raw_encoder_memusage)
+     * @throws IllegalArgumentException
+     *             if liblzma does not support the chain
+     */
+    public long getEncoderMemoryUsage() {
+        return checkMemoryUsage(CLibrary.lzma_raw_encoder_memusage(toFilters()));
+    }
+
+    /**
+     * @return an estimate of the memory liblzma requires to decode with this chain, in bytes (see:
+     *         lzma_raw_decoder_memusage)
+     * @throws IllegalArgumentException
+     *             if liblzma does not support the chain
+     */
+    public long getDecoderMemoryUsage() {
+        return checkMemoryUsage(CLibrary.lzma_raw_decoder_memusage(toFilters()));
+    }
+
+    /** @return the options of the final (LZMA1 or LZMA2) filter */
+    Options getLzmaOptions() {
+        return (Options) this.elements.get(this.elements.size() - 1).options;
+    }
+
+    /**
+     * Returns a newly allocated lzma_filter array, terminated by LZMA_VLI_UNKNOWN, for passing to
+     * liblzma. The options structures it references are owned by this chain, which must remain
+     * reachable for as long as the array is in use.
+     */
+    Filter toFilters() {
+        Filter first = new Filter();
+        Filter[] filters = (Filter[]) first.toArray(this.elements.size() + 1);
+        for (int i = 0; i < this.elements.size(); i++) {
+            Element e = this.elements.get(i);
+            filters[i].id = e.id;
+            filters[i].options = e.options != null ? e.options.getPointer() : null;
+        }
+        filters[filters.length - 1].id = Filter.IDs.VLI_UNKNOWN;
+        filters[filters.length - 1].options = null;
+        for (Filter f : filters) {
+            f.write();
+        }
+        return first;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FilterChain && this.elements.equals(((FilterChain) o).elements);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.elements.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("FilterChain[");
+        for (int i = 0; i < this.elements.size(); i++) {
+            sb.append(i > 0 ? ", " : "").append(String.format("0x%x", this.elements.get(i).id));
+        }
+        return sb.append("]").toString();
+    }
+
+    /** A filter ID and its (private, immutable) options structure. */
+    private static final class Element {
+        private final long id;
+        private final Structure options;
+        private final byte[] optionBytes;
+
+        private Element(long id, Structure options) {
+            this.id = id;
+            this.options = options;
+            if (options != null) {
+                options.write();
+                this.optionBytes = options.getPointer().getByteArray(0, options.size());
+            }
+            else {
+                this.optionBytes = new byte[0];
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Element)) {
+                return false;
+            }
+            Element other = (Element) o;
+            return this.id == other.id && Arrays.equals(this.optionBytes, other.optionBytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.valueOf(this.id).hashCode() + Arrays.hashCode(this.optionBytes);
+        }
+    }
+
+    private static long checkMemoryUsage(long usage) {
+        // UINT64_MAX signals unsupported options
+        checkArgument(usage != -1, "filter chain is not supported by liblzma");
+        return usage;
+    }
+
+    public static final class Builder {
+        private final List<Element> elements = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a delta filter.
+         * 
+         * @param distance
+         *            the distance between bytes to be compared (1-256), e.g. the size of a sample
+         */
+        public Builder delta(int distance) {
+            checkArgument(distance >= 1 && distance <= 256, "delta distance must be between 1-256");
+            Filter.DeltaOptions options = new Filter.DeltaOptions();
+            options.dist = distance;
+            return add(Filter.IDs.FILTER_DELTA, options);
+        }
+
+        /** Adds the x86 BCJ filter (32-bit and 64-bit x86) */
+        public Builder x86() {
+            return bcj(Filter.IDs.FILTER_X86, 0);
+        }
+
+        /** Adds the x86 BCJ filter, with a start offset for address conversions */
+        public Builder x86(int startOffset) {
+            return bcj(Filter.IDs.FILTER_X86, startOffset);
+        }
+
+        /** Adds the ARM BCJ filter */
+        public Builder arm() {
+            return bcj(Filter.IDs.FILTER_ARM, 0);
+        }
+
+        /** Adds the ARM-Thumb BCJ filter */
+        public Builder armThumb() {
+            return bcj(Filter.IDs.FILTER_ARMTHUMB, 0);
+        }
+
+        /** Adds the ARM64 BCJ filter (requires liblzma 5.4 or later) */
+        public Builder arm64() {
+            return bcj(Filter.IDs.FILTER_ARM64, 0);
+        }
+
+        /** Adds the PowerPC (big endian) BCJ filter */
+        public Builder powerPC() {
+            return bcj(Filter.IDs.FILTER_POWERPC, 0);
+        }
+
+        /** Adds the IA-64 (Itanium) BCJ filter */
+        public Builder ia64() {
+            return bcj(Filter.IDs.FILTER_IA64, 0);
+        }
+
+        /** Adds the SPARC BCJ filter */
+        public Builder sparc() {
+            return bcj(Filter.IDs.FILTER_SPARC, 0);
+        }
+
+        /**
+         * Adds a BCJ filter by ID, with a start offset for address conversions.
+         */
+        public Builder bcj(long id, int startOffset) {
+            Filter.BCJOptions options = null;
+            if (startOffset != 0) {
+                options = new Filter.BCJOptions();
+                options.start_offset = startOffset;
+            }
+            return add(id, options);
+        }
+
+        /**
+         * Adds the LZMA1 filter, which must be last. LZMA1 cannot be used in the .xz format.
+         */
+        public Builder lzma1(Options options) {
+            return add(Filter.IDs.FILTER_LZMA1, checkNotNull(options, "options argument").copy());
+        }
+
+        /** Adds the LZMA2 filter, which must be last. */
+        public Builder lzma2(Options options) {
+            return add(Filter.IDs.FILTER_LZMA2, checkNotNull(options, "options argument").copy());
+        }
+
+        /**
+         * @throws IllegalStateException
+         *             if the chain is empty, or does not end with LZMA1 or LZMA2
+         */
+        public FilterChain build() {
+            if (this.elements.isEmpty() || !isLzma(this.elements.get(this.elements.size() - 1).id)) {
+                throw new IllegalStateException("a filter chain must end with LZMA1 or LZMA2");
+            }
+            return new FilterChain(new ArrayList<>(this.elements));
+        }
+
+        private Builder add(long id, Structure options) {
+            if (!this.elements.isEmpty() && isLzma(this.elements.get(this.elements.size() - 1).id)) {
+                throw new IllegalStateException("LZMA1 and LZMA2 must be the last filter in a chain");
+            }
+            if (this.elements.size() == MAX_FILTERS) {
+                throw new IllegalStateException(String.format("a filter chain may hold at most %d filters", MAX_FILTERS));
+            }
+            this.elements.add(new Element(id, options));
+            return this;
+        }
+
+        private static boolean isLzma(long id) {
+            return id == Filter.IDs.FILTER_LZMA1 || id == Filter.IDs.FILTER_LZMA2;
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package org.wikimedia.lzma;
+
+/**
+ * Container formats an {@link Encoder} or {@link Decoder} can use.
+ * 
+ * @author Eric Evans
+ *
+ */
+public enum Format {
+    /**
+     * The .xz format: a stream header, one or more blocks (each with a header and integrity
+     * check), an index, and a stream footer.
+     */
+    XZ,
+    /**
+     * The legacy .lzma (LZMA_Alone) format: a 13 byte header followed by LZMA1 data. The filter
+     * chain must consist of LZMA1 alone.
+     */
+    LZMA_ALONE,
+    /**
+     * Raw filter chain output, without any container, header, or integrity check. Data must be
+     * decoded with the same filter chain it was encoded with, and the caller is responsible for
+     * recording sizes and verifying integrity. {@link Encoder.Flush#FULL} is not supported.
+     */
+    RAW;
+}
@@ -0,0 +1,16 @@
+package org.wikimedia.lzma;
+
+/**
+ * Thrown when the input is not in a recognized format (for example, the .xz magic bytes are
+ * missing).
+ * 
+ * @author Eric Evans
+ *
+ */
+public class FormatException extends LzmaException {
+    private static final long serialVersionUID = 1L;
+
+    public FormatException(Return ret) {
+        super(ret);
+    }
+}
@@ -0,0 +1,86 @@
+package org.wikimedia.lzma;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+/**
+ * analog to lzma_index_iter (see: /usr/include/lzma/index.h); The nested stream and block
+ * structures are flattened, with their fields prefixed by stream_ and block_ respectively.
+ */
+public class IndexIter extends Structure {
+    public Pointer stream_flags;
+    public Pointer stream_reserved_ptr1;
+    public Pointer stream_reserved_ptr2;
+    public Pointer stream_reserved_ptr3;
+    public long stream_number;
+    public long stream_block_count;
+    public long stream_compressed_offset;
+    public long stream_uncompressed_offset;
+    public long stream_compressed_size;
+    public long stream_uncompressed_size;
+    public long stream_padding;
+    public long stream_reserved_vli1;
+    public long stream_reserved_vli2;
+    public long stream_reserved_vli3;
+    public long stream_reserved_vli4;
+    public long block_number_in_file;
+    public long block_compressed_file_offset;
+    public long block_uncompressed_file_offset;
+    public long block_number_in_stream;
+    public long block_compressed_stream_offset;
+    public long block_uncompressed_stream_offset;
+    public long block_uncompressed_size;
+    public long block_unpadded_size;
+    public long block_total_size;
+    public long block_reserved_vli1;
+    public long block_reserved_vli2;
+    public long block_reserved_vli3;
+    public long block_reserved_vli4;
+    public Pointer block_reserved_ptr1;
+    public Pointer block_reserved_ptr2;
+    public Pointer block_reserved_ptr3;
+    public Pointer block_reserved_ptr4;
+    public long[] internal = new long[6]; // union { void *p; size_t s; lzma_vli v; }
+
+    @Override
+    protected List<String> getFieldOrder() {
+        return Arrays.asList(new String[] {
+                "stream_flags",
+                "stream_reserved_ptr1",
+                "stream_reserved_ptr2",
+                "stream_reserved_ptr3",
+                "stream_number",
+                "stream_block_count",
+                "stream_compressed_offset",
+                "stream_uncompressed_offset",
+                "stream_compressed_size",
+                "stream_uncompressed_size",
+                "stream_padding",
+                "stream_reserved_vli1",
+                "stream_reserved_vli2",
+                "stream_reserved_vli3",
+                "stream_reserved_vli4",
+                "block_number_in_file",
+                "block_compressed_file_offset",
+                "block_uncompressed_file_offset",
+                "block_number_in_stream",
+                "block_compressed_stream_offset",
+                "block_uncompressed_stream_offset",
+                "block_uncompressed_size",
+                "block_unpadded_size",
+                "block_total_size",
+                "block_reserved_vli1",
+                "block_reserved_vli2",
+                "block_reserved_vli3",
+                "block_reserved_vli4",
+                "block_reserved_ptr1",
+                "block_reserved_ptr2",
+                "block_reserved_ptr3",
+                "block_reserved_ptr4",
+                "internal" });
+    }
+
+}
@@ -0,0 +1,381 @@
+package org.wikimedia.lzma;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.google.common.primitives.UnsignedLong;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.LongByReference;
+import com.sun.jna.ptr.NativeLongByReference;
+
+/**
+ * One-shot, stateless compression and decompression of .xz data held entirely in memory (see:
+ * lzma_stream_buffer_encode, lzma_stream_buffer_decode).
+ * 
+ * <p>
+ * Each call makes a single native call, with no {@link Stream} to allocate, initialize, or end;
+ * For small payloads, this is considerably cheaper than using an {@link Encoder} or
+ * {@link Decoder}. All methods are thread-safe.
+ * </p>
+ * 
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * byte[] compressed = Lzma.compress(input);
+ * byte[] result = Lzma.decompress(compressed);
+ * </pre>
+ * </p>
+ * 
+ * @author Eric Evans
+ *
+ */
+public final class Lzma {
+
+    /** The filter chain used when none is specified: LZMA2, preset 6 */
+    public static final FilterChain DEFAULT_FILTERS = FilterChain.lzma2(6);
+
+    /** The integrity check used when none is specified */
+    public static final Check DEFAULT_CHECK = Check.CRC64;
+
+    /**
+     * The largest multiple of the input size allocated for output before any of it is decoded, in
+     * {@link Lzma#decompress(byte[], UnsignedLong)}
+     */
+    private static final int MAX_INITIAL_EXPANSION = 16;
+
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /** Buffer high-water mark of the decoder used when the output size is not known */
+    private static final int INCREMENTAL_BUFFER_SIZE = 64 * 1024;
+
+    private Lzma() {
+    }
+
+    /**
+     * @return the maximum size of the .xz encoding of {@code uncompressedSize} bytes (see:
+     *         lzma_stream_buffer_bound)
+     */
+    public static long maxCompressedSize(long uncompressedSize) {
+        checkArgument(uncompressedSize >= 0, "uncompressedSize must be non-negative");
+        long bound = CLibrary.lzma_stream_buffer_bound(new NativeLong(uncompressedSize)).longValue();
+        checkArgument(bound != 0, "uncompressedSize is too large");
+        return bound;
+    }
+
+    public static byte[] compress(byte[] src) throws LzmaException {
+        return compress(src, DEFAULT_FILTERS, DEFAULT_CHECK);
+    }
+
+    public static byte[] compress(byte[] src, int preset) throws LzmaException {
+        return compress(src, FilterChain.lzma2(preset), DEFAULT_CHECK);
+    }
+
+    public static byte[] compress(byte[] src, FilterChain filters, Check check) throws LzmaException {
+        checkNotNull(src, "src argument");
+        long bound = maxCompressedSize(src.length);
+        checkArgument(bound <= Integer.MAX_VALUE, "src is too large to compress to a byte array");
+        byte[] dst = new byte[(int) bound];
+        int len = compress(src, 0, src.length, dst, 0, dst.length, filters, check);
+        return Arrays.copyOf(dst, len);
+    }
+
+    /**
+     * Compresses {@code srcLen} bytes of {@code src} into {@code dst}.
+     * 
+     * @return the number of bytes written to {@code dst}
+     * @throws LzmaException
+     *             if {@code dstLen} is insufficient (see {@link Lzma#maxCompressedSize(long)}), or
+     *             liblzma reports an error
+     */
+    public static int compress(byte[] src,
+            int srcOff,
+            int srcLen,
+            byte[] dst,
+            int dstOff,
+            int dstLen,
+            FilterChain filters,
+            Check check) throws LzmaException {
+        checkNotNull(src, "src argument");
+        checkNotNull(dst, "dst argument");
+        checkNotNull(filters, "filters argument");
+        checkNotNull(check, "check argument");
+        checkBounds(src, srcOff, srcLen);
+        checkBounds(dst, dstOff, dstLen);
+
+        // The input is passed by its start address; Only the output has a position argument.
+        byte[] in = srcOff == 0 ? src : Arrays.copyOfRange(src, srcOff, srcOff + srcLen);
+        NativeLongByReference outPos = new NativeLongByReference(new NativeLong(dstOff));
+        int code = CLibrary.lzma_stream_buffer_encode(
+                filters.toFilters(),
+                check.getCode(),
+                null,
+                in,
+                new NativeLong(srcLen),
+                dst,
+                outPos,
+                new NativeLong(dstOff + dstLen));
+        checkResult(code);
+        return (int) (outPos.getValue().longValue() - dstOff);
+    }
+
+    public static int compress(ByteBuffer src, ByteBuffer dst) throws LzmaException {
+        return compress(src, dst, DEFAULT_FILTERS, DEFAULT_CHECK);
+    }
+
+    /**
+     * Compresses the remaining contents of {@code src} into {@code dst}, advancing the position of
+     * each.
+     * 
+     * @param src
+     *            a direct buffer of data to compress
+     * @param dst
+     *            a direct buffer to write the .xz stream to
+     * @return the number of bytes written to {@code dst}
+     * @throws LzmaException
+     *             if {@code dst} has insufficient space (see
+     *             {@link Lzma#maxCompressedSize(long)}), or liblzma reports an error
+     */
+    public static int compress(ByteBuffer src, ByteBuffer dst, FilterChain filters, Check check) throws LzmaException {
+        checkDirect(src, dst);
+        checkNotNull(filters, "filters argument");
+        checkNotNull(check, "check argument");
+
+        NativeLongByReference outPos = new NativeLongByReference(new NativeLong(dst.position()));
+        int code = CLibrary.lzma_stream_buffer_encode(
+                filters.toFilters(),
+                check.getCode(),
+                null,
+                Native.getDirectBufferPointer(src).share(src.position()),
+                new NativeLong(src.remaining()),
+                Native.getDirectBufferPointer(dst),
+                outPos,
+                new NativeLong(dst.limit()));
+        checkResult(code);
+
+        int written = (int) outPos.getValue().longValue() - dst.position();
+        src.position(src.limit());
+        dst.position(dst.position() + written);
+        return written;
+    }
+
+    public static byte[] decompress(byte[] src) throws LzmaException {
+        return decompress(src, UnsignedLong.MAX_VALUE);
+    }
+
+    /**
+     * Decompresses a complete .xz stream. The size of the output is taken from the stream index
+     * where possible, but as the index is not verified until decoding, the first buffer allocated
+     * is no larger than {@value #MAX_INITIAL_EXPANSION} times the input; Where that is
+     * insufficient, decoding continues incrementally, into successively larger buffers.
+     * 
+     * @param memLimit
+     *            the decoder memory usage limit
+     * @throws LzmaException
+     *             if the input is not a complete, valid .xz stream, or decoding would exceed the
+     *             memory limit
+     */
+    public static byte[] decompress(byte[] src, UnsignedLong memLimit) throws LzmaException {
+        checkNotNull(src, "src argument");
+        long size = uncompressedSize(src);
+        long limit = Math.min(Math.max(src.length * (long) MAX_INITIAL_EXPANSION, 64 * 1024), MAX_ARRAY_SIZE);
+        int capacity = (int) (size >= 0 ? Math.min(size, limit) : Math.min(Math.max(src.length * 4L, 4096), MAX_ARRAY_SIZE));
+
+        byte[] dst = new byte[capacity];
+        NativeLongByReference outPos = new NativeLongByReference(new NativeLong(0));
+        int code = decode(src, 0, src.length, dst, outPos, dst.length, memLimit);
+        if (Return.BUF_ERROR.getCode() != code) {
+            checkResult(code);
+            int len = (int) outPos.getValue().longValue();
+            return len == dst.length ? dst : Arrays.copyOf(dst, len);
+        }
+
+        // Either the output buffer was too small, or the input is truncated (liblzma reports both
+        // as BUF_ERROR, discarding the output); Decode incrementally to tell which, growing the
+        // output as it fills.
+        return decompressIncrementally(src, memLimit, (int) Math.min(capacity * 2L, MAX_ARRAY_SIZE));
+    }
+
+    private static byte[] decompressIncrementally(byte[] src, UnsignedLong memLimit, int capacity) throws LzmaException {
+        Decoder decoder = new Decoder(memLimit, EnumSet.of(Decoder.Flags.NONE), INCREMENTAL_BUFFER_SIZE);
+        try {
+            decoder.setInput(src);
+            decoder.finish();
+            byte[] dst = new byte[capacity];
+            int len = 0;
+            while (!decoder.finished()) {
+                if (len == dst.length) {
+                    if (len == MAX_ARRAY_SIZE) {
+                        throw new LzmaException("output is too large to decompress to a byte array");
+                    }
+                    dst = Arrays.copyOf(dst, (int) Math.min(len * 2L, MAX_ARRAY_SIZE));
+                }
+                len += decoder.decode(dst, len, dst.length - len);
+            }
+            return len == dst.length ? dst : Arrays.copyOf(dst, len);
+        }
+        catch (LzmaException e) {
+            throw e;
+        }
+        catch (IOException e) {
+            // Decoder reports nothing but LzmaException
+            throw new IllegalStateException(e);
+        }
+        finally {
+            decoder.end();
+        }
+    }
+
+    /**
+     * Decompresses a complete .xz stream occupying {@code srcLen} bytes of {@code src}, into
+     * {@code dst}.
+     * 
+     * @return the number of bytes written to {@code dst}
+     * @throws LzmaException
+     *             if {@code dstLen} is insufficient, the input is not a complete, valid .xz stream,
+     *             or decoding would exceed the memory limit
+     */
+    public static int decompress(byte[] src,
+            int srcOff,
+            int srcLen,
+            byte[] dst,
+            int dstOff,
+            int dstLen,
+            UnsignedLong memLimit) throws LzmaException {
+        checkNotNull(src, "src argument");
+        checkNotNull(dst, "dst argument");
+        checkBounds(src, srcOff, srcLen);
+        checkBounds(dst, dstOff, dstLen);
+
+        NativeLongByReference outPos = new NativeLongByReference(new NativeLong(dstOff));
+        int code = decode(src, srcOff, srcLen, dst, outPos, dstOff + dstLen, memLimit);
+        int written = (int) (outPos.getValue().longValue() - dstOff);
+        checkResult(code);
+        return written;
+    }
+
+    public static int decompress(ByteBuffer src, ByteBuffer dst) throws LzmaException {
+        return decompress(src, dst, UnsignedLong.MAX_VALUE);
+    }
+
+    /**
+     * Decompresses a complete .xz stream from the remaining contents of {@code src} into
+     * {@code dst}, advancing the position of each.
+     * 
+     * @param src
+     *            a direct buffer holding the .xz stream
+     * @param dst
+     *            a direct buffer to write decompressed data to
+     * @return the number of bytes written to {@code dst}
+     * @throws LzmaException
+     *             if {@code dst} has insufficient space, the input is not a complete, valid .xz
+     *             stream, or decoding would exceed the memory limit
+     */
+    public static int decompress(ByteBuffer src, ByteBuffer dst, UnsignedLong memLimit) throws LzmaException {
+        checkDirect(src, dst);
+        checkNotNull(memLimit, "memLimit argument");
+
+        NativeLongByReference inPos = new NativeLongByReference(new NativeLong(src.position()));
+        NativeLongByReference outPos = new NativeLongByReference(new NativeLong(dst.position()));
+        int code = CLibrary.lzma_stream_buffer_decode(
+                new LongByReference(memLimit.longValue()),
+                0,
+                null,
+                Native.getDirectBufferPointer(src),
+                inPos,
+                new NativeLong(src.limit()),
+                Native.getDirectBufferPointer(dst),
+                outPos,
+                new NativeLong(dst.limit()));
+        checkResult(code);
+
+        int written = (int) outPos.getValue().longValue() - dst.position();
+        src.position((int) inPos.getValue().longValue());
+        dst.position(dst.position() + written);
+        return written;
+    }
+
+    private static int decode(byte[] src,
+            int srcOff,
+            int srcLen,
+            byte[] dst,
+            NativeLongByReference outPos,
+            int outSize,
+            UnsignedLong memLimit) {
+        checkNotNull(memLimit, "memLimit argument");
+        return CLibrary.lzma_stream_buffer_decode(
+                new LongByReference(memLimit.longValue()),
+                0,
+                null,
+                src,
+                new NativeLongByReference(new NativeLong(srcOff)),
+                new NativeLong(srcOff + srcLen),
+                dst,
+                outPos,
+                new NativeLong(outSize));
+    }
+
+    /**
+     * @return the uncompressed size recorded in the index of a single .xz stream, or -1 if it
+     *         cannot be determined (or would not fit in an array)
+     */
+    private static long uncompressedSize(byte[] src) {
+        try {
+            int footerOffset = src.length - XZFormat.FOOTER_SIZE;
+            long indexSize = XZFormat.readIndexSize(src, footerOffset);
+            if (indexSize > footerOffset - XZFormat.HEADER_SIZE) {
+                return -1;
+            }
+            List<XZFormat.Record> records = XZFormat.readIndex(src, (int) (footerOffset - indexSize), (int) indexSize);
+            long size = 0;
+            for (XZFormat.Record r : records) {
+                size += r.getUncompressedSize();
+            }
+            return size <= MAX_ARRAY_SIZE ? size : -1;
+        }
+        catch (LzmaException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Checks the result of a buffer-to-buffer call; lzma_stream_buffer_decode reports both
+     * insufficient output space and truncated input as BUF_ERROR, resetting the output position,
+     * so that the two cannot be told apart.
+     */
+    private static void checkResult(int code) throws LzmaException {
+        Return ret = Return.fromCode(code);
+        if (ret == null) {
+            throw LzmaException.unrecognized(code);
+        }
+        switch (ret) {
+        case OK:
+            return;
+        case BUF_ERROR:
+            throw new LzmaException("insufficient space in the output buffer, or truncated input", ret);
+        default:
+            throw LzmaException.fromReturn(ret);
+        }
+    }
+
+    private static void checkBounds(byte[] buf, int offset, int len) {
+        if (offset < 0 || len < 0 || offset > (buf.length - len)) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+    }
+
+    private static void checkDirect(ByteBuffer src, ByteBuffer dst) {
+        checkNotNull(src, "src argument");
+        checkNotNull(dst, "dst argument");
+        checkArgument(src.isDirect() && dst.isDirect(), "src and dst must be direct buffers");
+    }
+
+}
@@ -0,0 +1,63 @@
+package org.wikimedia.lzma;
+
+import java.io.IOException;
+
+/**
+ * Signals an error reported by liblzma.
+ * 
+ * @see Return
+ * @author Eric Evans
+ *
+ */
+public class LzmaException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final Return ret;
+
+    public LzmaException(String msg) {
+        this(msg, null);
+    }
+
+    public LzmaException(Return ret) {
+        this(ret.getMessage(), ret);
+    }
+
+    public LzmaException(String msg, Return ret) {
+        super(msg);
+        this.ret = ret;
+    }
+
+    /** @return the liblzma return code responsible, or null if none applies */
+    public Return getReturn() {
+        return this.ret;
+    }
+
+    /**
+     * Returns an exception of the most specific type corresponding to a liblzma return code.
+     * 
+     * @param ret
+     *            an (error) return code
+     * @return an exception to throw
+     */
+    public static LzmaException fromReturn(Return ret) {
+        switch (ret) {
+        case MEMLIMIT_ERROR:
+            return new MemoryLimitException(ret);
+        case FORMAT_ERROR:
+            return new FormatException(ret);
+        case OPTIONS_ERROR:
+            return new UnsupportedOptionsException(ret);
+        case DATA_ERROR:
+            return new CorruptedInputException(ret);
+        default:
+            return new LzmaException(ret);
+        }
+    }
+
+    /**
+     * Returns an exception for a liblzma return code that is not part of {@link Return}.
+     */
+    static LzmaException unrecognized(int code) {
+        return new LzmaException(String.format("unrecognized return code from liblzma: %d", code));
+    }
+}
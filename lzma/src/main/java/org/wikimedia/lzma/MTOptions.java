@@ -0,0 +1,61 @@
+package org.wikimedia.lzma;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+/** analog to lzma_mt (see: /usr/include/lzma/container.h) */
+public class MTOptions extends Structure {
+    public int flags;
+    public int threads;
+    public long block_size;
+    public int timeout;
+    public int preset;
+    public Pointer filters;
+    public int check; // enum
+    public int reserved_enum1;
+    public int reserved_enum2;
+    public int reserved_enum3;
+    public int reserved_int1;
+    public int reserved_int2;
+    public int reserved_int3;
+    public int reserved_int4;
+    public long memlimit_threading;
+    public long memlimit_stop;
+    public long reserved_int7;
+    public long reserved_int8;
+    public Pointer reserved_ptr1;
+    public Pointer reserved_ptr2;
+    public Pointer reserved_ptr3;
+    public Pointer reserved_ptr4;
+
+    @Override
+    protected List<String> getFieldOrder() {
+        return Arrays.asList(new String[] {
+                "flags",
+                "threads",
+                "block_size",
+                "timeout",
+                "preset",
+                "filters",
+                "check",
+                "reserved_enum1",
+                "reserved_enum2",
+                "reserved_enum3",
+                "reserved_int1",
+                "reserved_int2",
+                "reserved_int3",
+                "reserved_int4",
+                "memlimit_threading",
+                "memlimit_stop",
+                "reserved_int7",
+                "reserved_int8",
+                "reserved_ptr1",
+                "reserved_ptr2",
+                "reserved_ptr3",
+                "reserved_ptr4" });
+    }
+
+}
@@ -32,7 +32,7 @@ public enum MatchFinder {
      * 64 MiB
      * </p>
      */
-    MF_HC3(0x03),
+    MF_HC3(0x03, 3),
     /**
      * Hash Chain with 2-, 3-, and 4-byte hashing
      * 
@@ -44,7 +44,7 @@ public enum MatchFinder {
      * Memory usage: - dict_size <= 32 MiB: dict_size * 7.5 - dict_size > 32 MiB: dict_size * 6.5
      * </p>
      */
-    MF_HC4(0x04),
+    MF_HC4(0x04, 4),
     /**
      * Binary Tree with 2-byte hashing
      * 
@@ -56,7 +56,7 @@ public enum MatchFinder {
      * Memory usage: dict_size * 9.5
      * </p>
      */
-    MF_BT2(0x12),
+    MF_BT2(0x12, 2),
     /**
      * Binary Tree with 2- and 3-byte hashing
      * 
@@ -69,7 +69,7 @@ public enum MatchFinder {
      * 64 MiB
      * </p>
      */
-    MF_BT3(0x13),
+    MF_BT3(0x13, 3),
     /**
      * Binary Tree with 2-, 3-, and 4-byte hashing
      * 
@@ -81,15 +81,31 @@ public enum MatchFinder {
      * Memory usage: - dict_size <= 32 MiB: dict_size * 11.5 - dict_size > 32 MiB: dict_size * 10.5
      * </p>
      */
-    MF_BT4(0x14);
+    MF_BT4(0x14, 4);
 
     private final int value;
+    private final int minNiceLength;
 
-    private MatchFinder(int value) {
+    private MatchFinder(int value, int minNiceLength) {
         this.value = value;
+        this.minNiceLength = minNiceLength;
     }
 
     public int getCode() {
         return this.value;
     }
+
+    /** @return the smallest nice_len supported by this match finder */
+    public int getMinNiceLength() {
+        return this.minNiceLength;
+    }
+
+    public static MatchFinder fromCode(int code) {
+        for (MatchFinder m : values()) {
+            if (m.getCode() == code) {
+                return m;
+            }
+        }
+        return null;
+    }
 }
@@ -0,0 +1,200 @@
+package org.wikimedia.lzma;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A budget for the native memory used by codecs, with admission control.
+ *
+ * <p>
+ * Before creating a codec, its projected footprint is reserved against the budget (see
+ * {@link FilterChain#getEncoderMemoryUsage()}, and for decoders, the memory usage limit); If the
+ * reservation would exceed the budget, it is either rejected with a {@link MemoryLimitException},
+ * or queued until enough memory has been released, according to the {@link Policy}. A reservation
+ * is held for the lifetime of the codec, and released by closing it.
+ * </p>
+ *
+ * <p>
+ * {@link MemoryBudget#global()} is shared by the whole process, and is used by {@link CodecPool}
+ * unless another budget is given. It is unlimited unless the {@value #LIMIT_PROPERTY} system
+ * property sets a limit (in bytes), in which case reservations are queued.
+ * </p>
+ *
+ * <p>
+ * Queued reservations park on a lock condition, rather than a monitor, so that virtual threads
+ * release their carrier thread while waiting.
+ * </p>
+ *
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * try (MemoryBudget.Reservation r = MemoryBudget.global().reserve(chain.getEncoderMemoryUsage())) {
+ *     Encoder encoder = new Encoder(chain, Check.CRC64);
+ *     ...
+ * }
+ * </pre>
+ * </p>
+ *
+ * @author Eric Evans
+ *
+ */
+public final class MemoryBudget {
+
+    /** Handling of reservations that do not fit in the remaining budget */
+    public static enum Policy {
+        /** Throw a {@link MemoryLimitException} */
+        REJECT,
+        /** Wait until enough memory has been released */
+        QUEUE;
+    }
+
+    /** System property setting the limit of the global budget, in bytes */
+    public static final String LIMIT_PROPERTY = "org.wikimedia.lzma.memoryBudget";
+
+    private static final MemoryBudget GLOBAL = new MemoryBudget(Long.getLong(LIMIT_PROPERTY, Long.MAX_VALUE), Policy.QUEUE);
+
+    private final long limit;
+    private final Policy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition freed = this.lock.newCondition();
+    private long used = 0;
+
+    public MemoryBudget(long limit, Policy policy) {
+        checkArgument(limit > 0, "limit must be positive");
+        this.limit = limit;
+        this.policy = checkNotNull(policy, "policy argument");
+    }
+
+    /** @return the process-wide budget */
+    public static MemoryBudget global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Reserves {@code bytes} of the budget, rejecting or queueing the request if they are not
+     * available, according to the policy.
+     *
+     * @throws MemoryLimitException
+     *             if {@code bytes} exceeds the limit, or exceeds the memory available and the
+     *             policy is {@link Policy#REJECT}
+     * @throws InterruptedException
+     *             if interrupted while queued
+     */
+    public Reservation reserve(long bytes) throws MemoryLimitException, InterruptedException {
+        checkArgument(bytes >= 0, "bytes must be non-negative");
+        if (bytes > this.limit) {
+            throw exhausted(bytes);
+        }
+        this.lock.lockInterruptibly();
+        try {
+            while (bytes > this.limit - this.used) {
+                if (this.policy.equals(Policy.REJECT)) {
+                    throw exhausted(bytes);
+                }
+                this.freed.await();
+            }
+            this.used += bytes;
+            return new Reservation(bytes);
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves {@code bytes} of the budget if they are available, regardless of the policy.
+     *
+     * @return the reservation, or null if insufficient memory is available
+     */
+    public Reservation tryReserve(long bytes) {
+        checkArgument(bytes >= 0, "bytes must be non-negative");
+        this.lock.lock();
+        try {
+            if (bytes > this.limit - this.used) {
+                return null;
+            }
+            this.used += bytes;
+            return new Reservation(bytes);
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getLimit() {
+        return this.limit;
+    }
+
+    public Policy getPolicy() {
+        return this.policy;
+    }
+
+    /** @return the number of bytes currently reserved */
+    public long getUsed() {
+        this.lock.lock();
+        try {
+            return this.used;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** @return the number of bytes available for reservation */
+    public long getAvailable() {
+        this.lock.lock();
+        try {
+            return this.limit - this.used;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void release(long bytes) {
+        this.lock.lock();
+        try {
+            this.used -= bytes;
+            this.freed.signalAll();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private MemoryLimitException exhausted(long bytes) {
+        return new MemoryLimitException(String.format(
+                "native memory budget exhausted (%d bytes requested, %d of %d available)",
+                bytes,
+                getAvailable(),
+                this.limit), Return.MEMLIMIT_ERROR);
+    }
+
+    /** A portion of the budget, returned when closed. */
+    public final class Reservation implements AutoCloseable {
+        private final long bytes;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public long getBytes() {
+            return this.bytes;
+        }
+
+        /** Returns the reserved memory to the budget; Subsequent calls have no effect. */
+        @Override
+        public void close() {
+            if (this.released.compareAndSet(false, true)) {
+                release(this.bytes);
+            }
+        }
+    }
+
+}
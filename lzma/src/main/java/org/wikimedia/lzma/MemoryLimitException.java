@@ -0,0 +1,19 @@
+package org.wikimedia.lzma;
+
+/**
+ * Thrown when decoding would require more memory than the configured memory usage limit allows.
+ * 
+ * @author Eric Evans
+ *
+ */
+public class MemoryLimitException extends LzmaException {
+    private static final long serialVersionUID = 1L;
+
+    public MemoryLimitException(Return ret) {
+        super(ret);
+    }
+
+    public MemoryLimitException(String msg, Return ret) {
+        super(msg, ret);
+    }
+}
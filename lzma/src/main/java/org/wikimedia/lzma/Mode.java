@@ -26,4 +26,13 @@ public enum Mode {
     public int getCode() {
         return this.value;
     }
+
+    public static Mode fromCode(int code) {
+        for (Mode m : values()) {
+            if (m.getCode() == code) {
+                return m;
+            }
+        }
+        return null;
+    }
 }
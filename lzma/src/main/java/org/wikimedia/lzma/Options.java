@@ -1,6 +1,7 @@
 package org.wikimedia.lzma;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.Arrays;
 import java.util.List;
@@ -8,7 +9,43 @@ import java.util.List;
 import com.sun.jna.Pointer;
 import com.sun.jna.Structure;
 
+/**
+ * Options for the LZMA1 and LZMA2 filters (see: lzma_options_lzma).
+ * 
+ * <p>
+ * Presets are a good starting point, and {@link Options#builder()} can adjust any of the
+ * individual settings from there, e.g. a hash chain match finder in fast mode for latency
+ * sensitive uses, or a binary tree in normal mode for archival:
+ * 
+ * <pre>
+ * Options fast = Options.builder().preset(1).matchFinder(MatchFinder.MF_HC4).mode(Mode.FAST).build();
+ * Options best = Options.builder().preset(9).extreme().matchFinder(MatchFinder.MF_BT4).niceLength(273).build();
+ * </pre>
+ * </p>
+ * 
+ * @author Eric Evans
+ *
+ */
 public class Options extends Structure {
+
+    /** Flag OR'd with a preset level to select its slower, extreme variant (see: LZMA_PRESET_EXTREME) */
+    public static final int PRESET_EXTREME = 0x80000000;
+
+    /** Smallest supported dictionary size (see: LZMA_DICT_SIZE_MIN) */
+    public static final int DICT_SIZE_MIN = 4096;
+
+    /** Largest dictionary size supported by the encoder (1.5 GiB) */
+    public static final int DICT_SIZE_MAX = 1536 * 1024 * 1024;
+
+    /** Upper bound of lc + lp (see: LZMA_LCLP_MAX) */
+    public static final int LCLP_MAX = 4;
+
+    /** Upper bound of pb (see: LZMA_PB_MAX) */
+    public static final int PB_MAX = 4;
+
+    /** Longest supported nice_len */
+    public static final int NICE_LEN_MAX = 273;
+
     public int dict_size;
     public Pointer preset_dict;
     public int preset_dict_size;
@@ -34,6 +71,9 @@ public class Options extends Structure {
     public Pointer reserved_ptr1;
     public Pointer reserved_ptr2;
 
+    // Referenced to keep the native copy reachable for as long as these options are
+    private PresetDictionary dictionary;
+
     @Override
     protected List<String> getFieldOrder() {
         return Arrays.asList(new String[] {
@@ -63,11 +103,212 @@ public class Options extends Structure {
                 "reserved_ptr2" });
     }
 
+    /** @return a copy of these options, backed by separately allocated native memory */
+    Options copy() {
+        write();
+        Options copy = new Options();
+        copy.getPointer().write(0, getPointer().getByteArray(0, size()), 0, size());
+        copy.read();
+        copy.dictionary = this.dictionary;
+        return copy;
+    }
+
+    /**
+     * Sets the preset dictionary, or clears it if {@code dictionary} is null. The dictionary is
+     * shared, not copied. Preset dictionaries are only supported by {@link Format#RAW}.
+     * 
+     * @return these options
+     */
+    public Options setPresetDictionary(PresetDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.preset_dict = dictionary != null ? dictionary.getPointer() : null;
+        this.preset_dict_size = dictionary != null ? dictionary.size() : 0;
+        return this;
+    }
+
+    /** @return the preset dictionary, or null if none is set */
+    public PresetDictionary getPresetDictionary() {
+        return this.dictionary;
+    }
+
+    /** @return the operating mode, or null if unrecognized */
+    public Mode getMode() {
+        return Mode.fromCode(this.mode);
+    }
+
+    /** @return the match finder, or null if unrecognized */
+    public MatchFinder getMatchFinder() {
+        return MatchFinder.fromCode(this.mf);
+    }
+
     public static Options fromPreset(int preset) {
+        return fromPreset(preset, false);
+    }
+
+    /**
+     * @param extreme
+     *            true to use the extreme variant of the preset, which compresses slightly better,
+     *            at the cost of considerably slower compression (see: LZMA_PRESET_EXTREME)
+     */
+    public static Options fromPreset(int preset, boolean extreme) {
         checkArgument(preset >=0 && preset <= 9, "preset must be between 0-9");
         Options options = new Options();
-        CLibrary.lzma_lzma_preset(options, preset);
+        CLibrary.lzma_lzma_preset(options, extreme ? preset | PRESET_EXTREME : preset);
         return options;
     }
 
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builds {@link Options}, starting from a preset (6, unless otherwise specified), and
+     * overriding individual settings. Arguments are checked as they are set, and the combination
+     * when built.
+     */
+    public static final class Builder {
+        private int preset = 6;
+        private boolean extreme = false;
+        private Integer dictSize;
+        private Integer lc;
+        private Integer lp;
+        private Integer pb;
+        private Mode mode;
+        private MatchFinder matchFinder;
+        private Integer niceLength;
+        private Integer depth;
+        private PresetDictionary dictionary;
+
+        private Builder() {
+        }
+
+        /** Sets the preset (0-9) that settings not otherwise specified are taken from */
+        public Builder preset(int preset) {
+            checkArgument(preset >= 0 && preset <= 9, "preset must be between 0-9");
+            this.preset = preset;
+            return this;
+        }
+
+        /** Uses the extreme variant of the preset (see: {@link Options#PRESET_EXTREME}) */
+        public Builder extreme() {
+            return extreme(true);
+        }
+
+        public Builder extreme(boolean extreme) {
+            this.extreme = extreme;
+            return this;
+        }
+
+        /**
+         * Sets the dictionary size; The amount of recently processed data that can be referred
+         * back to. Decoding requires roughly this much memory.
+         */
+        public Builder dictionarySize(int bytes) {
+            checkArgument(
+                    bytes >= DICT_SIZE_MIN && bytes <= DICT_SIZE_MAX,
+                    "dictionary size must be between %s-%s",
+                    DICT_SIZE_MIN,
+                    DICT_SIZE_MAX);
+            this.dictSize = bytes;
+            return this;
+        }
+
+        /** Sets the number of literal context bits (lc, 0-4, and lc + lp must not exceed 4) */
+        public Builder literalContextBits(int lc) {
+            checkArgument(lc >= 0 && lc <= LCLP_MAX, "lc must be between 0-%s", LCLP_MAX);
+            this.lc = lc;
+            return this;
+        }
+
+        /** Sets the number of literal position bits (lp, 0-4, and lc + lp must not exceed 4) */
+        public Builder literalPositionBits(int lp) {
+            checkArgument(lp >= 0 && lp <= LCLP_MAX, "lp must be between 0-%s", LCLP_MAX);
+            this.lp = lp;
+            return this;
+        }
+
+        /** Sets the number of position bits (pb, 0-4) */
+        public Builder positionBits(int pb) {
+            checkArgument(pb >= 0 && pb <= PB_MAX, "pb must be between 0-%s", PB_MAX);
+            this.pb = pb;
+            return this;
+        }
+
+        public Builder mode(Mode mode) {
+            this.mode = checkNotNull(mode, "mode argument");
+            return this;
+        }
+
+        public Builder matchFinder(MatchFinder matchFinder) {
+            this.matchFinder = checkNotNull(matchFinder, "matchFinder argument");
+            return this;
+        }
+
+        /**
+         * Sets the length of a match considered good enough to stop searching for a better one
+         * (nice_len, between the match finder's minimum and 273). Higher values improve the ratio,
+         * at the expense of speed.
+         */
+        public Builder niceLength(int niceLength) {
+            checkArgument(niceLength >= 2 && niceLength <= NICE_LEN_MAX, "nice length must be between 2-%s", NICE_LEN_MAX);
+            this.niceLength = niceLength;
+            return this;
+        }
+
+        /** Sets the maximum search depth of the match finder; 0 selects a default based on nice_len */
+        public Builder depth(int depth) {
+            checkArgument(depth >= 0, "depth must be non-negative");
+            this.depth = depth;
+            return this;
+        }
+
+        /** Sets the preset dictionary (see: {@link Options#setPresetDictionary(PresetDictionary)}) */
+        public Builder presetDictionary(PresetDictionary dictionary) {
+            this.dictionary = dictionary;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException
+         *             if lc + lp exceeds 4, or nice length is less than the match finder's minimum
+         */
+        public Options build() {
+            Options options = fromPreset(this.preset, this.extreme);
+            if (this.dictSize != null) {
+                options.dict_size = this.dictSize;
+            }
+            if (this.lc != null) {
+                options.lc = this.lc;
+            }
+            if (this.lp != null) {
+                options.lp = this.lp;
+            }
+            if (this.pb != null) {
+                options.pb = this.pb;
+            }
+            if (this.mode != null) {
+                options.mode = this.mode.getCode();
+            }
+            if (this.matchFinder != null) {
+                options.mf = this.matchFinder.getCode();
+            }
+            if (this.niceLength != null) {
+                options.nice_len = this.niceLength;
+            }
+            if (this.depth != null) {
+                options.depth = this.depth;
+            }
+            options.setPresetDictionary(this.dictionary);
+
+            checkArgument(options.lc + options.lp <= LCLP_MAX, "lc + lp must not exceed %s", LCLP_MAX);
+            MatchFinder mf = options.getMatchFinder();
+            checkArgument(
+                    options.nice_len >= mf.getMinNiceLength(),
+                    "nice length must be at least %s with %s",
+                    mf.getMinNiceLength(),
+                    mf);
+            return options;
+        }
+    }
+
 }
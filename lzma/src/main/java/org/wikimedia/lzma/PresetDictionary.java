@@ -0,0 +1,217 @@
+package org.wikimedia.lzma;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * An immutable preset dictionary for LZMA1/LZMA2, held in native memory (see: preset_dict,
+ * preset_dict_size of lzma_options_lzma).
+ *
+ * <p>
+ * A preset dictionary primes the compressor with data (say, boilerplate common to many
+ * documents) that can then be referenced from the very first byte of input. For small records,
+ * this can improve the compression ratio substantially, at no additional CPU cost. The native
+ * copy is allocated once, and is only ever read by liblzma, so a single dictionary can be shared
+ * by any number of {@link Options}, {@link Encoder}s, and {@link Decoder}s, across threads.
+ * </p>
+ *
+ * <p>
+ * Neither the .xz nor the .lzma format record a preset dictionary, so it is only usable with
+ * {@link Format#RAW}, and data must be decoded with the same dictionary it was encoded with.
+ * </p>
+ *
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * PresetDictionary dict = PresetDictionary.train(samples, 32 * 1024);
+ * FilterChain chain = FilterChain.builder().lzma2(Options.fromPreset(6).setPresetDictionary(dict)).build();
+ * Encoder encoder = new Encoder(Format.RAW, chain);
+ * Decoder decoder = new Decoder(Format.RAW, chain);
+ * </pre>
+ * </p>
+ *
+ * @author Eric Evans
+ *
+ */
+public final class PresetDictionary {
+
+    /** Length of the substrings counted when training */
+    private static final int SEGMENT_LENGTH = 16;
+
+    private final Memory memory;
+
+    private PresetDictionary(byte[] src, int offset, int len) {
+        checkArgument(len > 0, "dictionary must not be empty");
+        this.memory = new Memory(len);
+        this.memory.write(0, src, offset, len);
+    }
+
+    public static PresetDictionary fromBytes(byte[] src) {
+        return fromBytes(src, 0, src.length);
+    }
+
+    /**
+     * Creates a dictionary from a copy of {@code len} bytes of {@code src}. LZMA can only refer
+     * back as far as the dictionary size of the {@link Options}, so content likely to be matched
+     * is best placed at the end.
+     */
+    public static PresetDictionary fromBytes(byte[] src, int offset, int len) {
+        checkNotNull(src, "src argument");
+        if (offset < 0 || len < 0 || offset > (src.length - len)) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        return new PresetDictionary(src, offset, len);
+    }
+
+    public static PresetDictionary fromFile(Path path) throws IOException {
+        return fromBytes(Files.readAllBytes(checkNotNull(path, "path argument")));
+    }
+
+    /**
+     * Trains a dictionary of at most {@code maxSize} bytes from representative samples. Substrings
+     * occurring in more than one sample are extended to maximal runs and ranked by how often they
+     * recur, times their length; The highest ranked are placed last, where they are cheapest to
+     * refer to. If nothing recurs (say, with a single sample), the tail of the concatenated
+     * samples is used instead.
+     */
+    public static PresetDictionary train(Iterable<byte[]> samples, int maxSize) {
+        checkNotNull(samples, "samples argument");
+        checkArgument(maxSize > 0, "maxSize must be positive");
+
+        // Number of samples each segment occurs in
+        Map<Long, Integer> counts = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (long hash : hashes(sample)) {
+                if (seen.add(hash)) {
+                    Integer count = counts.get(hash);
+                    counts.put(hash, count == null ? 1 : count + 1);
+                }
+            }
+        }
+
+        // Maximal runs of recurring segments, scored by occurrences times length
+        Map<ByteBuffer, Long> candidates = new LinkedHashMap<>();
+        for (byte[] sample : samples) {
+            long[] hashes = hashes(sample);
+            int i = 0;
+            while (i < hashes.length) {
+                int min = counts.get(hashes[i]);
+                if (min < 2) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                while (i < hashes.length && counts.get(hashes[i]) >= 2) {
+                    min = Math.min(min, counts.get(hashes[i]));
+                    i++;
+                }
+                int len = Math.min(i - start + SEGMENT_LENGTH - 1, maxSize);
+                ByteBuffer segment = ByteBuffer.wrap(Arrays.copyOfRange(sample, start, start + len));
+                Long previous = candidates.get(segment);
+                candidates.put(segment, Math.max(previous == null ? 0 : previous, (long) min * len));
+            }
+        }
+
+        List<Map.Entry<ByteBuffer, Long>> ranked = new ArrayList<>(candidates.entrySet());
+        Collections.sort(ranked, new Comparator<Map.Entry<ByteBuffer, Long>>() {
+            @Override
+            public int compare(Map.Entry<ByteBuffer, Long> a, Map.Entry<ByteBuffer, Long> b) {
+                return Long.compare(b.getValue(), a.getValue());
+            }
+        });
+
+        List<ByteBuffer> selected = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<ByteBuffer, Long> e : ranked) {
+            if (size + e.getKey().remaining() <= maxSize) {
+                selected.add(e.getKey());
+                size += e.getKey().remaining();
+            }
+        }
+
+        if (size == 0) {
+            return fromTail(samples, maxSize);
+        }
+
+        byte[] dict = new byte[size];
+        int offset = size;
+        for (ByteBuffer segment : selected) {
+            offset -= segment.remaining();
+            segment.duplicate().get(dict, offset, segment.remaining());
+        }
+        return new PresetDictionary(dict, 0, size);
+    }
+
+    /** @return the size of the dictionary in bytes */
+    public int size() {
+        return (int) this.memory.size();
+    }
+
+    /** @return a copy of the dictionary contents */
+    public byte[] toByteArray() {
+        return this.memory.getByteArray(0, size());
+    }
+
+    /** @return the native copy, for assigning to preset_dict */
+    Pointer getPointer() {
+        return this.memory;
+    }
+
+    private static PresetDictionary fromTail(Iterable<byte[]> samples, int maxSize) {
+        ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+        for (byte[] sample : samples) {
+            concatenated.write(sample, 0, sample.length);
+        }
+        byte[] all = concatenated.toByteArray();
+        checkArgument(all.length > 0, "samples must not be empty");
+        int len = Math.min(all.length, maxSize);
+        return new PresetDictionary(all, all.length - len, len);
+    }
+
+    /** @return a hash of every SEGMENT_LENGTH substring of {@code data}, by offset */
+    private static long[] hashes(byte[] data) {
+        if (data.length < SEGMENT_LENGTH) {
+            return new long[0];
+        }
+
+        long[] hashes = new long[data.length - SEGMENT_LENGTH + 1];
+        long prime = 1099511628211L;
+        long power = 1;
+        for (int i = 0; i < SEGMENT_LENGTH - 1; i++) {
+            power *= prime;
+        }
+
+        long hash = 0;
+        for (int i = 0; i < SEGMENT_LENGTH; i++) {
+            hash = hash * prime + (data[i] & 0xff);
+        }
+        hashes[0] = hash;
+        for (int i = 1; i < hashes.length; i++) {
+            hash = (hash - (data[i - 1] & 0xff) * power) * prime + (data[i + SEGMENT_LENGTH - 1] & 0xff);
+            hashes[i] = hash;
+        }
+        return hashes;
+    }
+
+}
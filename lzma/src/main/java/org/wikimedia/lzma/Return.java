@@ -18,7 +18,8 @@ public enum Return {
     OPTIONS_ERROR(8, "invalid or unsupported options"),
     DATA_ERROR(9, "data is corrupt"),
     BUF_ERROR(10, "no progress is possible"),
-    PROG_ERROR(11, "programming error");
+    PROG_ERROR(11, "programming error"),
+    SEEK_NEEDED(12, "request to change the input file position");
 
     private static final Map<Integer, Return> index = Maps.newHashMap();
 
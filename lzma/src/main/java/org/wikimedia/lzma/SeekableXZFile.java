@@ -0,0 +1,415 @@
+package org.wikimedia.lzma;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.primitives.UnsignedLong;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.LongByReference;
+import com.sun.jna.ptr.NativeLongByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+/**
+ * Random access to the uncompressed contents of an .xz file.
+ *
+ * <p>
+ * The stream footers and indexes are read when opened (see: lzma_index_buffer_decode), after
+ * which an uncompressed offset is mapped to the block containing it (see: lzma_index_iter_locate),
+ * and only that block is read, using positional reads of the {@link FileChannel}, and decoded. The
+ * cost of a read is proportional to the size of a block, rather than of the file, so this is only
+ * of use with files made up of many blocks, such as those produced by multithreaded xz, a
+ * multithreaded {@link Encoder}, or {@link org.wikimedia.lzma.parallel.ParallelEncoder}.
+ * Concatenated streams, and stream padding, are supported.
+ * </p>
+ *
+ * <p>
+ * The most recently decoded block is retained, so that sequential reads decode each block once.
+ * </p>
+ *
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * try (SeekableXZFile file = SeekableXZFile.open(Paths.get("dump.xml.xz"))) {
+ *     byte[] buf = new byte[4096];
+ *     int len = file.read(1L &lt;&lt; 32, buf, 0, buf.length);
+ * }
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ *
+ * @author Eric Evans
+ *
+ */
+public final class SeekableXZFile implements Closeable {
+
+    private final FileChannel channel;
+    private final UnsignedLong memLimit;
+    private final List<Check> checks;
+    private final long uncompressedSize;
+    private final long blockCount;
+    private final ReentrantLock lock = new ReentrantLock();
+    private Pointer index;
+    private volatile DecodedBlock cached;
+
+    /**
+     * Opens a file for reading, with unlimited memory usage.
+     */
+    public static SeekableXZFile open(Path path) throws IOException {
+        return open(path, UnsignedLong.MAX_VALUE);
+    }
+
+    /**
+     * @param memLimit
+     *            the memory usage limit for decoding the indexes, and each block
+     */
+    public static SeekableXZFile open(Path path, UnsignedLong memLimit) throws IOException {
+        FileChannel channel = FileChannel.open(checkNotNull(path, "path argument"), StandardOpenOption.READ);
+        try {
+            return new SeekableXZFile(channel, memLimit);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the indexes of the .xz file open on {@code channel}, which is closed along with this
+     * object.
+     *
+     * @throws LzmaException
+     *             if the file is not .xz, or is corrupt
+     */
+    public SeekableXZFile(FileChannel channel, UnsignedLong memLimit) throws IOException {
+        this.channel = checkNotNull(channel, "channel argument");
+        this.memLimit = checkNotNull(memLimit, "memLimit argument");
+
+        List<Check> checks = new ArrayList<>();
+        long pos = channel.size();
+        try {
+            // Walk the streams from last to first, prepending each index to those that follow it
+            while (pos > 0) {
+                long padding = 0;
+                byte[] footer = readFully(pos - XZFormat.FOOTER_SIZE, XZFormat.FOOTER_SIZE);
+                while (isPadding(footer)) {
+                    padding += 4;
+                    pos -= 4;
+                    footer = readFully(pos - XZFormat.FOOTER_SIZE, XZFormat.FOOTER_SIZE);
+                }
+
+                long indexSize = XZFormat.readIndexSize(footer, 0);
+                Check check = XZFormat.readFooterCheck(footer, 0);
+                long indexOffset = pos - XZFormat.FOOTER_SIZE - indexSize;
+                if (indexOffset < XZFormat.HEADER_SIZE || indexSize > Integer.MAX_VALUE) {
+                    throw new CorruptedInputException("index does not match stream", Return.DATA_ERROR);
+                }
+                Pointer streamIndex = decodeIndex(readFully(indexOffset, (int) indexSize));
+
+                long streamOffset = pos - CLibrary.lzma_index_stream_size(streamIndex);
+                try {
+                    if (streamOffset < 0 || XZFormat.readStreamHeader(readFully(streamOffset, XZFormat.HEADER_SIZE), 0) != check) {
+                        throw new CorruptedInputException("stream header and footer do not match", Return.DATA_ERROR);
+                    }
+                    checkIndex(CLibrary.lzma_index_stream_padding(streamIndex, padding));
+                    if (this.index != null) {
+                        checkIndex(CLibrary.lzma_index_cat(streamIndex, this.index, null));
+                    }
+                }
+                catch (IOException | RuntimeException e) {
+                    CLibrary.lzma_index_end(streamIndex, null);
+                    throw e;
+                }
+                this.index = streamIndex;
+                checks.add(0, check);
+                pos = streamOffset;
+            }
+            if (this.index == null) {
+                throw new CorruptedInputException("compressed input is truncated", Return.BUF_ERROR);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            if (this.index != null) {
+                CLibrary.lzma_index_end(this.index, null);
+            }
+            throw e;
+        }
+
+        this.checks = Collections.unmodifiableList(checks);
+        this.uncompressedSize = CLibrary.lzma_index_uncompressed_size(this.index);
+        this.blockCount = CLibrary.lzma_index_block_count(this.index);
+    }
+
+    /** @return the uncompressed size of the file */
+    public long size() {
+        return this.uncompressedSize;
+    }
+
+    /** @return the total number of blocks, in all streams */
+    public long getBlockCount() {
+        return this.blockCount;
+    }
+
+    /** @return the number of concatenated streams */
+    public int getStreamCount() {
+        return this.checks.size();
+    }
+
+    /**
+     * Reads up to {@code len} bytes of uncompressed data, starting at {@code position}. At most
+     * the remainder of the block containing {@code position} is read.
+     *
+     * @return the number of bytes read, or -1 if {@code position} is at or beyond the end
+     */
+    public int read(long position, byte[] dst, int offset, int len) throws IOException {
+        checkNotNull(dst, "dst argument");
+        checkArgument(position >= 0, "position must be non-negative");
+        if (offset < 0 || len < 0 || offset > (dst.length - len)) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        if (position >= this.uncompressedSize) {
+            return -1;
+        }
+
+        DecodedBlock decoded = this.cached;
+        if (decoded == null || !decoded.block.contains(position)) {
+            Block block = locate(position);
+            decoded = new DecodedBlock(block, decode(block));
+            this.cached = decoded;
+        }
+        int start = (int) (position - decoded.block.getUncompressedOffset());
+        int count = Math.min(len, decoded.data.length - start);
+        System.arraycopy(decoded.data, start, dst, offset, count);
+        return count;
+    }
+
+    /**
+     * Reads exactly {@code len} bytes of uncompressed data, starting at {@code position}.
+     *
+     * @throws EOFException
+     *             if the end of the file is reached first
+     */
+    public void readFully(long position, byte[] dst, int offset, int len) throws IOException {
+        while (len > 0) {
+            int count = read(position, dst, offset, len);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            position += count;
+            offset += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * @return the block containing uncompressed offset {@code position}
+     * @throws IllegalArgumentException
+     *             if {@code position} is beyond the end of the file
+     */
+    public Block locate(long position) throws IOException {
+        checkArgument(position >= 0 && position < this.uncompressedSize, "position must be within the file");
+        IndexIter iter = new IndexIter();
+        this.lock.lock();
+        try {
+            ensureOpen();
+            CLibrary.lzma_index_iter_init(iter, this.index);
+            if (CLibrary.lzma_index_iter_locate(iter, position) != 0) {
+                throw new IllegalArgumentException("position must be within the file");
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+        iter.read();
+        return new Block(
+                iter.block_number_in_file,
+                this.checks.get((int) iter.stream_number - 1),
+                iter.block_compressed_file_offset,
+                iter.block_uncompressed_file_offset,
+                iter.block_unpadded_size,
+                iter.block_total_size,
+                iter.block_uncompressed_size);
+    }
+
+    /**
+     * Decodes a block in its entirety.
+     *
+     * @throws LzmaException
+     *             if the block is corrupt, or decoding would exceed the memory limit
+     */
+    public byte[] decode(Block block) throws IOException {
+        checkNotNull(block, "block argument");
+        if (block.getUncompressedSize() > Integer.MAX_VALUE - 8 || block.getTotalSize() > Integer.MAX_VALUE - 1024) {
+            throw new UnsupportedOperationException("block is too large to decode to a byte array");
+        }
+
+        // Present the block to the decoder as a single-block stream
+        XZFormat.Record record = new XZFormat.Record(block.getUnpaddedSize(), block.getUncompressedSize());
+        byte[] index = XZFormat.index(Collections.singletonList(record));
+        byte[] footer = XZFormat.streamFooter(block.check, index.length);
+        int blockSize = (int) block.getTotalSize();
+        byte[] src = new byte[XZFormat.HEADER_SIZE + blockSize + index.length + footer.length];
+        System.arraycopy(XZFormat.streamHeader(block.check), 0, src, 0, XZFormat.HEADER_SIZE);
+        readFully(ByteBuffer.wrap(src, XZFormat.HEADER_SIZE, blockSize), block.getCompressedOffset());
+        System.arraycopy(index, 0, src, XZFormat.HEADER_SIZE + blockSize, index.length);
+        System.arraycopy(footer, 0, src, XZFormat.HEADER_SIZE + blockSize + index.length, footer.length);
+
+        byte[] dst = new byte[(int) block.getUncompressedSize()];
+        Lzma.decompress(src, 0, src.length, dst, 0, dst.length, this.memLimit);
+        return dst;
+    }
+
+    /** Frees the index, and closes the channel. */
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            if (this.index != null) {
+                CLibrary.lzma_index_end(this.index, null);
+                this.index = null;
+            }
+            this.cached = null;
+        }
+        finally {
+            this.lock.unlock();
+        }
+        this.channel.close();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (this.index == null) {
+            throw new IOException("file is closed");
+        }
+    }
+
+    private Pointer decodeIndex(byte[] buf) throws LzmaException {
+        PointerByReference index = new PointerByReference();
+        LongByReference limit = new LongByReference(this.memLimit.longValue());
+        NativeLongByReference inPos = new NativeLongByReference(new NativeLong(0));
+        checkIndex(CLibrary.lzma_index_buffer_decode(index, limit, null, buf, inPos, new NativeLong(buf.length)));
+        return index.getValue();
+    }
+
+    private static void checkIndex(int code) throws LzmaException {
+        Return ret = Return.fromCode(code);
+        if (ret == null) {
+            throw LzmaException.unrecognized(code);
+        }
+        if (!ret.equals(Return.OK)) {
+            throw LzmaException.fromReturn(ret.equals(Return.BUF_ERROR) ? Return.DATA_ERROR : ret);
+        }
+    }
+
+    /** @return true if the last 4 bytes of {@code footer} are stream padding */
+    private static boolean isPadding(byte[] footer) {
+        int len = footer.length;
+        return footer[len - 4] == 0 && footer[len - 3] == 0 && footer[len - 2] == 0 && footer[len - 1] == 0;
+    }
+
+    private byte[] readFully(long position, int len) throws IOException {
+        if (position < 0) {
+            throw new CorruptedInputException("compressed input is truncated", Return.BUF_ERROR);
+        }
+        byte[] buf = new byte[len];
+        readFully(ByteBuffer.wrap(buf), position);
+        return buf;
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int count = this.channel.read(dst, position);
+            if (count < 0) {
+                throw new CorruptedInputException("compressed input is truncated", Return.BUF_ERROR);
+            }
+            position += count;
+        }
+    }
+
+    /** The location of a block, in the file and in the uncompressed data. */
+    public static final class Block {
+        private final long number;
+        private final Check check;
+        private final long compressedOffset;
+        private final long uncompressedOffset;
+        private final long unpaddedSize;
+        private final long totalSize;
+        private final long uncompressedSize;
+
+        private Block(
+                long number,
+                Check check,
+                long compressedOffset,
+                long uncompressedOffset,
+                long unpaddedSize,
+                long totalSize,
+                long uncompressedSize) {
+            this.number = number;
+            this.check = check;
+            this.compressedOffset = compressedOffset;
+            this.uncompressedOffset = uncompressedOffset;
+            this.unpaddedSize = unpaddedSize;
+            this.totalSize = totalSize;
+            this.uncompressedSize = uncompressedSize;
+        }
+
+        /** @return the number of the block in the file, starting at 1 */
+        public long getNumber() {
+            return this.number;
+        }
+
+        /** @return the offset of the block in the file */
+        public long getCompressedOffset() {
+            return this.compressedOffset;
+        }
+
+        /** @return the offset of the block's contents in the uncompressed data */
+        public long getUncompressedOffset() {
+            return this.uncompressedOffset;
+        }
+
+        /** @return the size of the block, excluding block padding */
+        public long getUnpaddedSize() {
+            return this.unpaddedSize;
+        }
+
+        /** @return the size of the block, including block padding */
+        public long getTotalSize() {
+            return this.totalSize;
+        }
+
+        public long getUncompressedSize() {
+            return this.uncompressedSize;
+        }
+
+        private boolean contains(long position) {
+            return position >= this.uncompressedOffset && position - this.uncompressedOffset < this.uncompressedSize;
+        }
+    }
+
+    private static final class DecodedBlock {
+        private final Block block;
+        private final byte[] data;
+
+        private DecodedBlock(Block block, byte[] data) {
+            this.block = block;
+            this.data = data;
+        }
+    }
+
+}
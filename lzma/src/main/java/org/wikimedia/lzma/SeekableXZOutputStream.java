@@ -0,0 +1,178 @@
+package org.wikimedia.lzma;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An output stream that compresses data written to it in the .xz format, as a series of blocks of
+ * bounded size.
+ *
+ * <p>
+ * A new block is started every {@code blockSize} bytes of input, as well as on each call to
+ * {@link SeekableXZOutputStream#endBlock()} (or {@link SeekableXZOutputStream#flush()}), by means
+ * of a full flush (see: LZMA_FULL_FLUSH). Blocks are independent of one another, so the output can
+ * be read at random with {@link SeekableXZFile}, and decoded in parallel with
+ * {@link org.wikimedia.lzma.parallel.ParallelDecoder}, at some cost in compression ratio for small
+ * blocks. The location of each block is recorded (see {@link SeekableXZOutputStream#getBlocks()}),
+ * for callers maintaining indexes of their own.
+ * </p>
+ *
+ * @see SeekableXZFile
+ * @author Eric Evans
+ *
+ */
+public class SeekableXZOutputStream extends XZOutputStream {
+
+    /** Default uncompressed size of each block */
+    public static final long DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private final Encoder encoder;
+    private final long blockSize;
+    private final List<Block> blocks = new ArrayList<>();
+    private long compressedOffset = XZFormat.HEADER_SIZE;
+    private long uncompressedOffset = 0;
+    private long pending = 0;
+
+    public SeekableXZOutputStream(OutputStream out) {
+        this(out, 6, Check.CRC64, DEFAULT_BLOCK_SIZE);
+    }
+
+    public SeekableXZOutputStream(OutputStream out, int preset, Check check, long blockSize) {
+        this(out, new Encoder(Options.fromPreset(preset), check, DEFAULT_WINDOW_SIZE), DEFAULT_WINDOW_SIZE, blockSize, true);
+    }
+
+    /**
+     * Creates a stream that compresses using the supplied encoder. The encoder must be ready for a
+     * new .xz stream; It is not deinitialized when the stream is closed.
+     *
+     * @param out
+     *            the output stream to write compressed data to
+     * @param encoder
+     *            the encoder ({@link Format#XZ})
+     * @param windowSize
+     *            the maximum amount of data passed to the encoder at once (best kept within the
+     *            encoder's buffer high-water mark, beyond which its internal buffers would grow)
+     * @param blockSize
+     *            the uncompressed size of each block
+     */
+    public SeekableXZOutputStream(OutputStream out, Encoder encoder, int windowSize, long blockSize) {
+        this(out, encoder, windowSize, blockSize, false);
+    }
+
+    private SeekableXZOutputStream(OutputStream out, Encoder encoder, int windowSize, long blockSize, boolean ownsEncoder) {
+        super(out, encoder, windowSize, ownsEncoder);
+        checkArgument(encoder.getFormat().equals(Format.XZ), "encoder must produce the .xz format");
+        checkArgument(blockSize > 0, "blockSize must be positive");
+        this.encoder = encoder;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkNotNull(b, "b argument");
+        if (off < 0 || len < 0 || off > (b.length - len)) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        while (len > 0) {
+            int chunk = (int) Math.min(len, this.blockSize - this.pending);
+            super.write(b, off, chunk);
+            this.pending += chunk;
+            off += chunk;
+            len -= chunk;
+            if (this.pending == this.blockSize) {
+                endBlock();
+            }
+        }
+    }
+
+    /**
+     * Ends the current block, so that data written from here on starts a new one. Unlike
+     * {@link SeekableXZOutputStream#flush()}, the underlying output stream is not flushed. Has no
+     * effect if nothing has been written since the previous block ended.
+     */
+    public void endBlock() throws IOException {
+        if (this.pending == 0) {
+            return;
+        }
+        flushBlock();
+        long end = this.encoder.getBytesWritten();
+        this.blocks.add(new Block(this.compressedOffset, end - this.compressedOffset, this.uncompressedOffset, this.pending));
+        this.compressedOffset = end;
+        this.uncompressedOffset += this.pending;
+        this.pending = 0;
+    }
+
+    /** Ends the current block, and flushes the underlying output stream. */
+    @Override
+    public void flush() throws IOException {
+        endBlock();
+        super.flush();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        endBlock();
+        super.finish();
+    }
+
+    /** @return the blocks written so far, in order */
+    public List<Block> getBlocks() {
+        return Collections.unmodifiableList(new ArrayList<>(this.blocks));
+    }
+
+    public long getBlockSize() {
+        return this.blockSize;
+    }
+
+    /** The location of a block, in the compressed and in the uncompressed data. */
+    public static final class Block {
+        private final long compressedOffset;
+        private final long totalSize;
+        private final long uncompressedOffset;
+        private final long uncompressedSize;
+
+        private Block(long compressedOffset, long totalSize, long uncompressedOffset, long uncompressedSize) {
+            this.compressedOffset = compressedOffset;
+            this.totalSize = totalSize;
+            this.uncompressedOffset = uncompressedOffset;
+            this.uncompressedSize = uncompressedSize;
+        }
+
+        /** @return the offset of the block in the .xz stream */
+        public long getCompressedOffset() {
+            return this.compressedOffset;
+        }
+
+        /** @return the size of the block, including block padding and check */
+        public long getTotalSize() {
+            return this.totalSize;
+        }
+
+        /** @return the offset of the block's contents in the uncompressed data */
+        public long getUncompressedOffset() {
+            return this.uncompressedOffset;
+        }
+
+        public long getUncompressedSize() {
+            return this.uncompressedSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Block[compressed=%d+%d, uncompressed=%d+%d]",
+                    this.compressedOffset,
+                    this.totalSize,
+                    this.uncompressedOffset,
+                    this.uncompressedSize);
+        }
+    }
+
+}
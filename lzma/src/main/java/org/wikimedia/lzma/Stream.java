@@ -1,9 +1,15 @@
 package org.wikimedia.lzma;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
 import com.sun.jna.Memory;
+import com.sun.jna.Native;
 import com.sun.jna.NativeLong;
 import com.sun.jna.Pointer;
 import com.sun.jna.Structure;
@@ -29,10 +35,69 @@ public class Stream extends Structure {
     public int reserved_enum1;
     public int reserved_enum2;
 
-    public Stream(int bufSize) {
-        this.next_in = new Memory(bufSize);
-        this.next_out = new Memory(bufSize);
+    /** Initial size of the internal buffers */
+    static final int MIN_BUFFER_SIZE = 4096;
+
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    private final int highWaterMark;
+    private Buffer inBuffer;
+    private Buffer outBuffer;
+    private ByteBuffer inView;
+
+    // The expected size of the output for the pending input, and whether the output buffer was last filled
+    private long outputHint;
+    private boolean outputFilled;
+
+    // The native lzma_stream, and the offsets of the only fields touched while coding
+    private final Pointer strm;
+    private final int nextInOffset;
+    private final int availInOffset;
+    private final int nextOutOffset;
+    private final int availOutOffset;
+
+    // Addresses of the direct buffers most recently passed to wrap(), which are referenced weakly,
+    // so that an idle stream does not keep them (or the files they map) from being collected
+    private Reference<ByteBuffer> wrappedSrc = new WeakReference<>(null);
+    private long wrappedSrcAddress;
+    private Reference<ByteBuffer> wrappedDst = new WeakReference<>(null);
+    private long wrappedDstAddress;
+
+    /**
+     * Creates a stream (initialized to LZMA_STREAM_INIT), with internal input and output buffers.
+     *
+     * <p>
+     * The buffers start small, and grow as needed: The input buffer to hold whatever is added, and
+     * the output buffer to the size expected for the pending input (see
+     * {@link #expectOutput(long)}), or by doubling whenever it is filled, up to the size the caller
+     * is able to accept. Buffers that have grown beyond {@code highWaterMark} bytes are reallocated
+     * at that size by {@link #shrink()}, so that a long-lived stream used for an occasional large
+     * input does not retain the memory.
+     * </p>
+     *
+     * <p>
+     * Automatic synchronization of the structure is disabled; The native memory is authoritative,
+     * and next_in, avail_in, next_out, and avail_out are accessed there directly, at fixed offsets,
+     * so that the coding loop performs no reflection and allocates nothing. The public fields are
+     * only current after an explicit {@link Structure#read()}.
+     * </p>
+     */
+    public Stream(int highWaterMark) {
+        checkArgument(highWaterMark > 0, "highWaterMark must be positive");
+        this.highWaterMark = highWaterMark;
+        int initial = Math.min(MIN_BUFFER_SIZE, highWaterMark);
+        this.inBuffer = new Buffer(initial);
+        this.outBuffer = new Buffer(initial);
+        this.inView = this.inBuffer.getByteBuffer(0, initial);
+        setAutoSynch(false);
         allocateMemory();
+
+        this.strm = getPointer();
+        this.nextInOffset = fieldOffset("next_in");
+        this.availInOffset = fieldOffset("avail_in");
+        this.nextOutOffset = fieldOffset("next_out");
+        this.availOutOffset = fieldOffset("avail_out");
+        rewind();
     }
 
     @Override
@@ -58,4 +123,203 @@ public class Stream extends Structure {
                 "reserved_enum2", });
     }
 
-}
\ No newline at end of file
+    /** @return the size above which the internal buffers are shrunk */
+    int getHighWaterMark() {
+        return this.highWaterMark;
+    }
+
+    /** @return the combined size of the internal input and output buffers */
+    long getBufferCapacity() {
+        return this.inBuffer.size() + this.outBuffer.size();
+    }
+
+    /** @return the number of input bytes not yet consumed by liblzma */
+    int availIn() {
+        return (int) getSize(this.availInOffset);
+    }
+
+    /** Runs lzma_code on this stream, passing the raw pointer to avoid structure synchronization. */
+    int code(Action action) {
+        return CLibrary.lzma_code(this.strm, action.getCode());
+    }
+
+    /**
+     * Appends {@code len} bytes of {@code src} to the internal input buffer, growing it if
+     * necessary. Any input left unconsumed by a previous call to lzma_code is first moved to the
+     * start of the buffer.
+     * 
+     * @throws IllegalArgumentException
+     *             if the pending and new input together exceed the maximum buffer size
+     */
+    void addInput(byte[] src, int offset, int len) {
+        int pending = availIn();
+        checkArgument((long) pending + len <= MAX_BUFFER_SIZE, "pending input exceeds the maximum buffer size");
+        int consumed = pending > 0 ? (int) (getAddress(this.nextInOffset) - Pointer.nativeValue(this.inBuffer)) : 0;
+
+        if (pending + len > this.inBuffer.size()) {
+            Buffer grown = new Buffer(grow(this.inBuffer.size(), pending + len));
+            ByteBuffer view = grown.getByteBuffer(0, grown.size());
+            this.inView.limit(consumed + pending);
+            this.inView.position(consumed);
+            view.put(this.inView);
+            view.clear();
+            this.inBuffer.free();
+            this.inBuffer = grown;
+            this.inView = view;
+        }
+        else if (pending > 0 && consumed > 0) {
+            this.inView.limit(consumed + pending);
+            this.inView.position(consumed);
+            this.inView.compact();
+            this.inView.clear();
+        }
+        this.inBuffer.write(pending, src, offset, len);
+
+        setAddress(this.nextInOffset, Pointer.nativeValue(this.inBuffer));
+        setSize(this.availInOffset, pending + len);
+    }
+
+    /**
+     * Sets the output expected from the pending input (e.g. lzma_stream_buffer_bound of its size,
+     * when encoding), so that the output buffer can be grown to hold it at once.
+     */
+    void expectOutput(long bytes) {
+        this.outputHint = bytes;
+    }
+
+    /**
+     * Points next_out at the start of the internal output buffer, first growing it to the expected
+     * output size, or doubling it if it was filled by the previous call, but not beyond {@code len}.
+     * 
+     * @param len
+     *            the maximum number of bytes the caller is able to accept
+     * @return the number of bytes made available to liblzma (at most the buffer size)
+     */
+    int prepareOutput(int len) {
+        long capacity = this.outBuffer.size();
+        long wanted = Math.min(len, Math.max(this.outputFilled ? capacity * 2 : capacity, this.outputHint));
+        if (wanted > capacity) {
+            Buffer grown = new Buffer(wanted);
+            this.outBuffer.free();
+            this.outBuffer = grown;
+        }
+
+        int window = (int) Math.min(len, this.outBuffer.size());
+        setAddress(this.nextOutOffset, Pointer.nativeValue(this.outBuffer));
+        setSize(this.availOutOffset, window);
+        return window;
+    }
+
+    /**
+     * Copies the output produced since the last {@link #prepareOutput(int)} to {@code dst}.
+     * 
+     * @return the number of bytes copied
+     */
+    int drainOutput(int window, byte[] dst, int offset) {
+        int produced = window - (int) getSize(this.availOutOffset);
+        this.outBuffer.read(0, dst, offset, produced);
+        this.outputFilled = produced == this.outBuffer.size();
+        return produced;
+    }
+
+    /**
+     * Points next_in and next_out directly at the remaining contents of (direct) buffers, bypassing
+     * the internal buffers. The addresses of the most recently wrapped buffers are cached, so that
+     * repeatedly wrapping the same buffers allocates nothing; The buffers themselves are only
+     * weakly referenced.
+     */
+    void wrap(ByteBuffer src, ByteBuffer dst) {
+        if (src != this.wrappedSrc.get()) {
+            this.wrappedSrcAddress = Pointer.nativeValue(Native.getDirectBufferPointer(src));
+            this.wrappedSrc = new WeakReference<>(src);
+        }
+        if (dst != this.wrappedDst.get()) {
+            this.wrappedDstAddress = Pointer.nativeValue(Native.getDirectBufferPointer(dst));
+            this.wrappedDst = new WeakReference<>(dst);
+        }
+        setAddress(this.nextInOffset, this.wrappedSrcAddress + src.position());
+        setSize(this.availInOffset, src.remaining());
+        setAddress(this.nextOutOffset, this.wrappedDstAddress + dst.position());
+        setSize(this.availOutOffset, dst.remaining());
+    }
+
+    /**
+     * Advances the positions of buffers passed to {@link #wrap(ByteBuffer, ByteBuffer)} past the
+     * data consumed and produced, and points next_in/next_out back at the internal buffers.
+     */
+    void unwrap(ByteBuffer src, ByteBuffer dst) {
+        src.position(src.limit() - availIn());
+        dst.position(dst.limit() - (int) getSize(this.availOutOffset));
+        rewind();
+    }
+
+    /**
+     * Reallocates internal buffers that have grown beyond the high-water mark at that size. Any
+     * pending input is discarded.
+     */
+    void shrink() {
+        if (this.inBuffer.size() > this.highWaterMark) {
+            this.inBuffer.free();
+            this.inBuffer = new Buffer(this.highWaterMark);
+            this.inView = this.inBuffer.getByteBuffer(0, this.highWaterMark);
+        }
+        if (this.outBuffer.size() > this.highWaterMark) {
+            this.outBuffer.free();
+            this.outBuffer = new Buffer(this.highWaterMark);
+        }
+        this.outputHint = 0;
+        this.outputFilled = false;
+        rewind();
+    }
+
+    /** Discards any pending input, and points next_in/next_out back at the internal buffers. */
+    void rewind() {
+        setAddress(this.nextInOffset, Pointer.nativeValue(this.inBuffer));
+        setSize(this.availInOffset, 0);
+        setAddress(this.nextOutOffset, Pointer.nativeValue(this.outBuffer));
+        setSize(this.availOutOffset, 0);
+    }
+
+    /** @return a buffer size of at least {@code needed} bytes, and at least double {@code capacity} */
+    private static long grow(long capacity, long needed) {
+        return Math.min(Math.max(capacity * 2, needed), MAX_BUFFER_SIZE);
+    }
+
+    private long getAddress(int offset) {
+        return Pointer.SIZE == 8 ? this.strm.getLong(offset) : this.strm.getInt(offset) & 0xffffffffL;
+    }
+
+    private void setAddress(int offset, long address) {
+        if (Pointer.SIZE == 8) {
+            this.strm.setLong(offset, address);
+        }
+        else {
+            this.strm.setInt(offset, (int) address);
+        }
+    }
+
+    private long getSize(int offset) {
+        return NativeLong.SIZE == 8 ? this.strm.getLong(offset) : this.strm.getInt(offset) & 0xffffffffL;
+    }
+
+    private void setSize(int offset, long size) {
+        if (NativeLong.SIZE == 8) {
+            this.strm.setLong(offset, size);
+        }
+        else {
+            this.strm.setInt(offset, (int) size);
+        }
+    }
+
+    /** Native memory that can be freed as soon as it is replaced, rather than when collected. */
+    private static final class Buffer extends Memory {
+        private Buffer(long size) {
+            super(size);
+        }
+
+        private void free() {
+            dispose();
+        }
+    }
+
+}
@@ -0,0 +1,16 @@
+package org.wikimedia.lzma;
+
+/**
+ * Thrown when liblzma rejects the supplied options, or the input requires options this build of
+ * liblzma does not support.
+ * 
+ * @author Eric Evans
+ *
+ */
+public class UnsupportedOptionsException extends LzmaException {
+    private static final long serialVersionUID = 1L;
+
+    public UnsupportedOptionsException(Return ret) {
+        super(ret);
+    }
+}
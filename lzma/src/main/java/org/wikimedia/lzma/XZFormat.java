@@ -0,0 +1,215 @@
+package org.wikimedia.lzma;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the container structures of the .xz format (stream header and footer, and
+ * index), so that independently compressed blocks can be assembled into a stream, and the blocks
+ * of a stream located (see: http://tukaani.org/xz/xz-file-format.txt).
+ * 
+ * @author Eric Evans
+ *
+ */
+public final class XZFormat {
+
+    /** Size of the stream header and of the stream footer */
+    public static final int HEADER_SIZE = 12;
+    public static final int FOOTER_SIZE = 12;
+
+    private static final byte[] HEADER_MAGIC = { (byte) 0xFD, '7', 'z', 'X', 'Z', 0x00 };
+    private static final byte[] FOOTER_MAGIC = { 'Y', 'Z' };
+
+    /** An index record, describing one block */
+    public static final class Record {
+        private final long unpaddedSize;
+        private final long uncompressedSize;
+
+        public Record(long unpaddedSize, long uncompressedSize) {
+            this.unpaddedSize = unpaddedSize;
+            this.uncompressedSize = uncompressedSize;
+        }
+
+        /** @return the size of the block, excluding block padding */
+        public long getUnpaddedSize() {
+            return this.unpaddedSize;
+        }
+
+        /** @return the size of the block, including block padding */
+        public long getTotalSize() {
+            return (this.unpaddedSize + 3) & ~3L;
+        }
+
+        public long getUncompressedSize() {
+            return this.uncompressedSize;
+        }
+    }
+
+    private XZFormat() {
+    }
+
+    public static byte[] streamHeader(Check check) {
+        byte[] header = new byte[HEADER_SIZE];
+        System.arraycopy(HEADER_MAGIC, 0, header, 0, HEADER_MAGIC.length);
+        header[7] = (byte) check.getCode();
+        putInt(header, 8, crc32(header, 6, 2));
+        return header;
+    }
+
+    /**
+     * @param check
+     *            the integrity check type
+     * @param indexSize
+     *            the size of the index preceding the footer (a multiple of four)
+     */
+    public static byte[] streamFooter(Check check, long indexSize) {
+        checkArgument(indexSize > 0 && indexSize % 4 == 0, "invalid index size");
+        byte[] footer = new byte[FOOTER_SIZE];
+        putInt(footer, 4, (int) (indexSize / 4 - 1));
+        footer[9] = (byte) check.getCode();
+        putInt(footer, 0, crc32(footer, 4, 6));
+        System.arraycopy(FOOTER_MAGIC, 0, footer, 10, FOOTER_MAGIC.length);
+        return footer;
+    }
+
+    /**
+     * Returns the integrity check type recorded in a stream header.
+     * 
+     * @throws FormatException
+     *             if the header is not a valid .xz stream header
+     */
+    public static Check readStreamHeader(byte[] buf, int offset) throws LzmaException {
+        if (buf.length - offset < HEADER_SIZE
+                || !Arrays.equals(Arrays.copyOfRange(buf, offset, offset + HEADER_MAGIC.length), HEADER_MAGIC)) {
+            throw new FormatException(Return.FORMAT_ERROR);
+        }
+        if (crc32(buf, offset + 6, 2) != getInt(buf, offset + 8)) {
+            throw new CorruptedInputException("stream header is corrupt", Return.DATA_ERROR);
+        }
+        return checkFromFlags(buf, offset + 6);
+    }
+
+    /**
+     * Returns the size of the index recorded in a stream footer.
+     * 
+     * @throws CorruptedInputException
+     *             if the footer is not a valid .xz stream footer
+     */
+    public static long readIndexSize(byte[] buf, int offset) throws LzmaException {
+        if (buf.length - offset < FOOTER_SIZE || buf[offset + 10] != FOOTER_MAGIC[0] || buf[offset + 11] != FOOTER_MAGIC[1]) {
+            throw new CorruptedInputException("stream footer not found", Return.DATA_ERROR);
+        }
+        if (crc32(buf, offset + 4, 6) != getInt(buf, offset)) {
+            throw new CorruptedInputException("stream footer is corrupt", Return.DATA_ERROR);
+        }
+        return ((getInt(buf, offset + 4) & 0xffffffffL) + 1) * 4;
+    }
+
+    /**
+     * Returns the integrity check type recorded in a stream footer.
+     */
+    public static Check readFooterCheck(byte[] buf, int offset) throws LzmaException {
+        return checkFromFlags(buf, offset + 8);
+    }
+
+    public static byte[] index(List<Record> records) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x00);
+        putVli(out, records.size());
+        for (Record r : records) {
+            putVli(out, r.getUnpaddedSize());
+            putVli(out, r.getUncompressedSize());
+        }
+        while (out.size() % 4 != 0) {
+            out.write(0x00);
+        }
+        byte[] index = Arrays.copyOf(out.toByteArray(), out.size() + 4);
+        putInt(index, index.length - 4, crc32(index, 0, index.length - 4));
+        return index;
+    }
+
+    /**
+     * Parses an index.
+     * 
+     * @throws CorruptedInputException
+     *             if the index is malformed
+     */
+    public static List<Record> readIndex(byte[] buf, int offset, int len) throws LzmaException {
+        if (len < 8 || len % 4 != 0 || buf[offset] != 0x00) {
+            throw new CorruptedInputException("invalid index", Return.DATA_ERROR);
+        }
+        if (crc32(buf, offset, len - 4) != getInt(buf, offset + len - 4)) {
+            throw new CorruptedInputException("index is corrupt", Return.DATA_ERROR);
+        }
+
+        int end = offset + len - 4;
+        int[] pos = { offset + 1 };
+        long count = getVli(buf, pos, end);
+        List<Record> records = new ArrayList<>();
+        for (long i = 0; i < count; i++) {
+            long unpadded = getVli(buf, pos, end);
+            long uncompressed = getVli(buf, pos, end);
+            records.add(new Record(unpadded, uncompressed));
+        }
+        for (int i = pos[0]; i < end; i++) {
+            if (buf[i] != 0x00) {
+                throw new CorruptedInputException("invalid index", Return.DATA_ERROR);
+            }
+        }
+        return records;
+    }
+
+    private static Check checkFromFlags(byte[] buf, int offset) throws LzmaException {
+        Check check = Check.fromCode(buf[offset + 1] & 0x0f);
+        if (buf[offset] != 0x00 || (buf[offset + 1] & 0xf0) != 0 || check == null) {
+            throw new UnsupportedOptionsException(Return.OPTIONS_ERROR);
+        }
+        return check;
+    }
+
+    private static void putVli(ByteArrayOutputStream out, long value) {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long getVli(byte[] buf, int[] pos, int end) throws LzmaException {
+        long value = 0;
+        for (int i = 0; i < 9 && pos[0] < end; i++) {
+            int b = buf[pos[0]++] & 0xff;
+            value |= (long) (b & 0x7f) << (i * 7);
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new CorruptedInputException("invalid index", Return.DATA_ERROR);
+    }
+
+    private static int crc32(byte[] buf, int offset, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(buf, offset, len);
+        return (int) crc.getValue();
+    }
+
+    private static void putInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) value;
+        buf[offset + 1] = (byte) (value >>> 8);
+        buf[offset + 2] = (byte) (value >>> 16);
+        buf[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static int getInt(byte[] buf, int offset) {
+        return (buf[offset] & 0xff)
+                | (buf[offset + 1] & 0xff) << 8
+                | (buf[offset + 2] & 0xff) << 16
+                | (buf[offset + 3] & 0xff) << 24;
+    }
+
+}
@@ -0,0 +1,159 @@
+package org.wikimedia.lzma;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumSet;
+
+import com.google.common.primitives.UnsignedLong;
+
+/**
+ * An input stream that decompresses .xz data read from an underlying input stream.
+ * 
+ * <p>
+ * Data is streamed through a fixed-size window (see {@link XZOutputStream#DEFAULT_WINDOW_SIZE}),
+ * so memory use is bounded regardless of the size of the decompressed data. Reading stops at the
+ * end of the first .xz stream, unless the decoder was created with
+ * {@link Decoder.Flags#CONCATENATED}.
+ * </p>
+ * 
+ * @see XZOutputStream
+ * @author Eric Evans
+ *
+ */
+public class XZInputStream extends FilterInputStream {
+
+    private final Decoder decoder;
+    private final boolean ownsDecoder;
+    private final byte[] buf;
+    private final byte[] single = new byte[1];
+    private boolean eof = false;
+    private boolean closed = false;
+
+    public XZInputStream(InputStream in) {
+        this(in, UnsignedLong.MAX_VALUE);
+    }
+
+    public XZInputStream(InputStream in, UnsignedLong memLimit) {
+        this(in, new Decoder(memLimit, EnumSet.of(Decoder.Flags.NONE), XZOutputStream.DEFAULT_WINDOW_SIZE),
+                XZOutputStream.DEFAULT_WINDOW_SIZE,
+                true);
+    }
+
+    /**
+     * Creates a stream that decompresses using the supplied decoder. The decoder must be ready for a
+     * new stream; It is not deinitialized when the stream is closed.
+     * 
+     * @param in
+     *            the input stream to read compressed data from
+     * @param decoder
+     *            the decoder
+     * @param windowSize
+     *            the maximum amount of compressed data passed to the decoder at once (best kept
+     *            within the decoder's buffer high-water mark, beyond which its internal buffers
+     *            would grow)
+     */
+    public XZInputStream(InputStream in, Decoder decoder, int windowSize) {
+        this(in, decoder, windowSize, false);
+    }
+
+    private XZInputStream(InputStream in, Decoder decoder, int windowSize, boolean ownsDecoder) {
+        super(checkNotNull(in, "in argument"));
+        this.decoder = checkNotNull(decoder, "decoder argument");
+        this.ownsDecoder = ownsDecoder;
+        this.buf = new byte[windowSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(this.single, 0, 1) == -1 ? -1 : this.single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || off > (b.length - len)) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        while (!this.decoder.finished()) {
+            int n = this.decoder.decode(b, off, len);
+            if (n > 0) {
+                return n;
+            }
+            if (this.decoder.needsInput() && !this.eof) {
+                fill();
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        if (n <= 0) {
+            return 0;
+        }
+        byte[] skipBuf = new byte[(int) Math.min(n, 4096)];
+        long remaining = n;
+        while (remaining > 0) {
+            int len = read(skipBuf, 0, (int) Math.min(remaining, skipBuf.length));
+            if (len == -1) {
+                break;
+            }
+            remaining -= len;
+        }
+        return n - remaining;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            if (this.ownsDecoder) {
+                this.decoder.end();
+            }
+        }
+        finally {
+            this.in.close();
+        }
+    }
+
+    private void fill() throws IOException {
+        int n = this.in.read(this.buf, 0, this.buf.length);
+        if (n == -1) {
+            this.eof = true;
+            this.decoder.finish();
+        }
+        else {
+            this.decoder.setInput(this.buf, 0, n);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (this.closed) {
+            throw new IOException("stream closed");
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+package org.wikimedia.lzma;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that compresses data written to it in the .xz format.
+ * 
+ * <p>
+ * Data is streamed through a fixed-size window (see {@link XZOutputStream#DEFAULT_WINDOW_SIZE}),
+ * so memory use is bounded regardless of how much is written.
+ * </p>
+ * 
+ * @see XZInputStream
+ * @author Eric Evans
+ *
+ */
+public class XZOutputStream extends FilterOutputStream {
+
+    /** Default size of the native (and heap) buffers used to stream data */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+
+    private final Encoder encoder;
+    private final boolean ownsEncoder;
+    private final int windowSize;
+    private final byte[] buf;
+    private final byte[] single = new byte[1];
+    private boolean closed = false;
+
+    public XZOutputStream(OutputStream out) {
+        this(out, 6);
+    }
+
+    public XZOutputStream(OutputStream out, int preset) {
+        this(out, preset, Check.CRC64);
+    }
+
+    public XZOutputStream(OutputStream out, int preset, Check check) {
+        this(out, new Encoder(Options.fromPreset(preset), check, DEFAULT_WINDOW_SIZE), DEFAULT_WINDOW_SIZE, true);
+    }
+
+    /**
+     * Creates a stream that compresses using the supplied encoder. The encoder must be ready for a
+     * new stream; It is not deinitialized when the stream is closed.
+     * 
+     * @param out
+     *            the output stream to write compressed data to
+     * @param encoder
+     *            the encoder
+     * @param windowSize
+     *            the maximum amount of data passed to the encoder at once (best kept within the
+     *            encoder's buffer high-water mark, beyond which its internal buffers would grow)
+     */
+    public XZOutputStream(OutputStream out, Encoder encoder, int windowSize) {
+        this(out, encoder, windowSize, false);
+    }
+
+    XZOutputStream(OutputStream out, Encoder encoder, int windowSize, boolean ownsEncoder) {
+        super(checkNotNull(out, "out argument"));
+        this.encoder = checkNotNull(encoder, "encoder argument");
+        this.ownsEncoder = ownsEncoder;
+        this.windowSize = windowSize;
+        this.buf = new byte[windowSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.single[0] = (byte) b;
+        write(this.single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || off > (b.length - len)) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        while (len > 0) {
+            int chunk = Math.min(len, this.windowSize);
+            this.encoder.setInput(b, off, chunk);
+            while (!this.encoder.needsInput()) {
+                deflate(Encoder.Flush.NONE);
+            }
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Flushes all data written so far, ending the current .xz block so that it can be decoded
+     * without the remainder of the stream, and flushes the underlying output stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBlock();
+        this.out.flush();
+    }
+
+    /**
+     * Finishes writing compressed data to the underlying output stream, without closing it.
+     */
+    public void finish() throws IOException {
+        ensureOpen();
+        this.encoder.finish();
+        while (!this.encoder.finished()) {
+            deflate(Encoder.Flush.NONE);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        try {
+            finish();
+        }
+        finally {
+            this.closed = true;
+            if (this.ownsEncoder) {
+                this.encoder.end();
+            }
+            this.out.close();
+        }
+    }
+
+    /** Ends the current .xz block, writing it out in full, but does not flush the output stream. */
+    void flushBlock() throws IOException {
+        ensureOpen();
+        while (deflate(Encoder.Flush.FULL) == this.buf.length) {
+            continue;
+        }
+    }
+
+    private int deflate(Encoder.Flush flush) throws IOException {
+        int len = this.encoder.encode(this.buf, 0, this.buf.length, flush);
+        if (len > 0) {
+            this.out.write(this.buf, 0, len);
+        }
+        return len;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (this.closed) {
+            throw new IOException("stream closed");
+        }
+    }
+
+}
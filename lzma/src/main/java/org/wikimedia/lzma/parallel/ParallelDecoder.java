@@ -0,0 +1,219 @@
+package org.wikimedia.lzma.parallel;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.wikimedia.lzma.Check;
+import org.wikimedia.lzma.CorruptedInputException;
+import org.wikimedia.lzma.Decoder;
+import org.wikimedia.lzma.Encoder;
+import org.wikimedia.lzma.LzmaException;
+import org.wikimedia.lzma.Return;
+import org.wikimedia.lzma.XZFormat;
+import org.wikimedia.lzma.XZOutputStream;
+
+import com.google.common.base.Throwables;
+import com.google.common.primitives.UnsignedLong;
+
+/**
+ * Decompresses multi-block .xz streams in parallel.
+ * 
+ * <p>
+ * The stream index is read to locate each block, and blocks are then decoded independently of one
+ * another by {@link ForkJoinPool} workers (using pooled {@link Decoder}s), directly into their
+ * place in the output. Any single-stream .xz data can be decoded, but only data made up of many
+ * blocks (such as that produced by {@link ParallelEncoder}, or a multithreaded {@link Encoder})
+ * benefits.
+ * </p>
+ * 
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ * 
+ * @see ParallelEncoder
+ * @author Eric Evans
+ *
+ */
+public class ParallelDecoder implements AutoCloseable {
+
+    private final ForkJoinPool pool;
+    private final UnsignedLong memLimit;
+    private final Queue<Decoder> decoders = new ConcurrentLinkedQueue<>();
+
+    /** Creates a decoder using the common pool, with no memory usage limit. */
+    public ParallelDecoder() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelDecoder(ForkJoinPool pool) {
+        this(pool, UnsignedLong.MAX_VALUE);
+    }
+
+    /**
+     * @param pool
+     *            the pool to decode blocks with
+     * @param memLimit
+     *            the memory usage limit of each block decoder
+     */
+    public ParallelDecoder(ForkJoinPool pool, UnsignedLong memLimit) {
+        this.pool = checkNotNull(pool, "pool argument");
+        this.memLimit = checkNotNull(memLimit, "memLimit argument");
+    }
+
+    public byte[] decode(byte[] src) throws IOException {
+        return decode(src, 0, src.length);
+    }
+
+    /**
+     * Decompresses a .xz stream occupying {@code len} bytes of {@code src}.
+     * 
+     * @return the decompressed data
+     * @throws LzmaException
+     *             if the stream is invalid or corrupt, or cannot be decoded
+     */
+    public byte[] decode(byte[] src, int offset, int len) throws IOException {
+        checkNotNull(src, "src argument");
+        if (offset < 0 || len < 0 || offset > (src.length - len)) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        if (len < XZFormat.HEADER_SIZE + XZFormat.FOOTER_SIZE) {
+            throw new CorruptedInputException("compressed input is truncated", Return.BUF_ERROR);
+        }
+
+        Check check = XZFormat.readStreamHeader(src, offset);
+        int footerOffset = offset + len - XZFormat.FOOTER_SIZE;
+        long indexSize = XZFormat.readIndexSize(src, footerOffset);
+        if (XZFormat.readFooterCheck(src, footerOffset) != check || indexSize > footerOffset - offset - XZFormat.HEADER_SIZE) {
+            throw new CorruptedInputException("stream header and footer do not match", Return.DATA_ERROR);
+        }
+        int indexOffset = (int) (footerOffset - indexSize);
+        List<XZFormat.Record> records = XZFormat.readIndex(src, indexOffset, (int) indexSize);
+
+        long compressedOffset = offset + XZFormat.HEADER_SIZE;
+        long uncompressedOffset = 0;
+        List<BlockTask> tasks = new ArrayList<>();
+        for (XZFormat.Record record : records) {
+            tasks.add(new BlockTask(src, check, (int) compressedOffset, (int) uncompressedOffset, record));
+            compressedOffset += record.getTotalSize();
+            uncompressedOffset += record.getUncompressedSize();
+            if (compressedOffset > indexOffset || uncompressedOffset > Integer.MAX_VALUE) {
+                throw new CorruptedInputException("index does not match stream", Return.DATA_ERROR);
+            }
+        }
+        if (compressedOffset != indexOffset) {
+            throw new CorruptedInputException("index does not match stream", Return.DATA_ERROR);
+        }
+
+        byte[] dst = new byte[(int) uncompressedOffset];
+        for (BlockTask task : tasks) {
+            task.dst = dst;
+        }
+        ParallelEncoder.invoke(this.pool, tasks);
+        return dst;
+    }
+
+    /** Deinitializes pooled decoders. */
+    @Override
+    public void close() {
+        Decoder decoder;
+        while ((decoder = this.decoders.poll()) != null) {
+            decoder.end();
+        }
+    }
+
+    private Decoder borrow() {
+        Decoder decoder = this.decoders.poll();
+        return decoder != null ? decoder : new Decoder(
+                this.memLimit,
+                EnumSet.of(Decoder.Flags.NONE),
+                XZOutputStream.DEFAULT_WINDOW_SIZE);
+    }
+
+    private void release(Decoder decoder) {
+        decoder.reset();
+        this.decoders.offer(decoder);
+    }
+
+    /** Decodes one block, by presenting it to a decoder as a single-block stream. */
+    private class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] src;
+        private final Check check;
+        private final int offset;
+        private final int dstOffset;
+        private final XZFormat.Record record;
+        private byte[] dst;
+
+        private BlockTask(byte[] src, Check check, int offset, int dstOffset, XZFormat.Record record) {
+            this.src = src;
+            this.check = check;
+            this.offset = offset;
+            this.dstOffset = dstOffset;
+            this.record = record;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                Decoder decoder = borrow();
+                try {
+                    decompress(decoder);
+                }
+                catch (IOException | RuntimeException e) {
+                    decoder.end();
+                    throw e;
+                }
+                release(decoder);
+            }
+            catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        private void decompress(Decoder decoder) throws IOException {
+            byte[] index = XZFormat.index(Collections.singletonList(this.record));
+            byte[] footer = XZFormat.streamFooter(this.check, index.length);
+            byte[][] parts = { XZFormat.streamHeader(this.check), this.src, index, footer };
+            int[] offsets = { 0, this.offset, 0, 0 };
+            int[] lengths = { XZFormat.HEADER_SIZE, (int) this.record.getTotalSize(), index.length, footer.length };
+
+            byte[] scratch = new byte[1];
+            int dstPos = this.dstOffset;
+            int dstEnd = this.dstOffset + (int) this.record.getUncompressedSize();
+            int part = 0;
+            while (!decoder.finished()) {
+                if (decoder.needsInput()) {
+                    if (part == parts.length) {
+                        decoder.finish();
+                    }
+                    else {
+                        int chunk = Math.min(lengths[part], XZOutputStream.DEFAULT_WINDOW_SIZE);
+                        decoder.setInput(parts[part], offsets[part], chunk);
+                        offsets[part] += chunk;
+                        lengths[part] -= chunk;
+                        if (lengths[part] == 0) {
+                            part++;
+                        }
+                    }
+                }
+                if (dstPos < dstEnd) {
+                    dstPos += decoder.decode(this.dst, dstPos, dstEnd - dstPos);
+                }
+                else if (decoder.decode(scratch) > 0) {
+                    throw new CorruptedInputException("block is larger than recorded in the index", Return.DATA_ERROR);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,225 @@
+package org.wikimedia.lzma.parallel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.wikimedia.lzma.Check;
+import org.wikimedia.lzma.Encoder;
+import org.wikimedia.lzma.FilterChain;
+import org.wikimedia.lzma.XZFormat;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Compresses data in parallel, producing a single multi-block .xz stream.
+ * 
+ * <p>
+ * Input is split into fixed-size chunks, each of which is compressed as an independent .xz block
+ * by a {@link ForkJoinPool} worker (using a pooled {@link Encoder}). The blocks are then assembled
+ * into one stream, with an index describing them. The result can be decoded by any .xz decoder, and
+ * decoded in parallel with {@link ParallelDecoder}. Unlike multithreaded encoding in liblzma, this
+ * does not depend on liblzma having been built with threading support.
+ * </p>
+ * 
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ * 
+ * @see ParallelDecoder
+ * @author Eric Evans
+ *
+ */
+public class ParallelEncoder implements AutoCloseable {
+
+    /** Default uncompressed size of each block */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private final ForkJoinPool pool;
+    private final int blockSize;
+    private final FilterChain filters;
+    private final Check check;
+    private final Queue<Encoder> encoders = new ConcurrentLinkedQueue<>();
+
+    /** Creates an encoder using the common pool, preset 6, and CRC64 checks. */
+    public ParallelEncoder() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BLOCK_SIZE, 6, Check.CRC64);
+    }
+
+    /**
+     * @param pool
+     *            the pool to compress blocks with
+     * @param blockSize
+     *            the uncompressed size of each block
+     * @param preset
+     *            the compression preset (0-9)
+     * @param check
+     *            the integrity check type
+     */
+    public ParallelEncoder(ForkJoinPool pool, int blockSize, int preset, Check check) {
+        this(pool, blockSize, FilterChain.lzma2(preset), check);
+    }
+
+    /**
+     * @param pool
+     *            the pool to compress blocks with
+     * @param blockSize
+     *            the uncompressed size of each block
+     * @param filters
+     *            the filter chain (ending with LZMA2)
+     * @param check
+     *            the integrity check type
+     */
+    public ParallelEncoder(ForkJoinPool pool, int blockSize, FilterChain filters, Check check) {
+        checkArgument(blockSize > 0, "blockSize must be positive");
+        this.pool = checkNotNull(pool, "pool argument");
+        this.blockSize = blockSize;
+        this.filters = checkNotNull(filters, "filters argument");
+        this.check = checkNotNull(check, "check argument");
+    }
+
+    public byte[] encode(byte[] src) throws IOException {
+        return encode(src, 0, src.length);
+    }
+
+    /**
+     * Compresses {@code len} bytes of {@code src}.
+     * 
+     * @return the complete .xz stream
+     */
+    public byte[] encode(final byte[] src, int offset, int len) throws IOException {
+        checkNotNull(src, "src argument");
+        if (offset < 0 || len < 0 || offset > (src.length - len)) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        final List<BlockTask> tasks = new ArrayList<>();
+        for (int pos = 0; pos < len; pos += this.blockSize) {
+            tasks.add(new BlockTask(src, offset + pos, Math.min(this.blockSize, len - pos)));
+        }
+
+        invoke(this.pool, tasks);
+
+        List<XZFormat.Record> records = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(XZFormat.streamHeader(this.check));
+        for (BlockTask task : tasks) {
+            task.writeBlocks(out);
+            records.addAll(task.records);
+        }
+        byte[] index = XZFormat.index(records);
+        out.write(index);
+        out.write(XZFormat.streamFooter(this.check, index.length));
+        return out.toByteArray();
+    }
+
+    /** Deinitializes pooled encoders. */
+    @Override
+    public void close() {
+        Encoder encoder;
+        while ((encoder = this.encoders.poll()) != null) {
+            encoder.end();
+        }
+    }
+
+    private Encoder borrow() {
+        Encoder encoder = this.encoders.poll();
+        return encoder != null ? encoder : new Encoder(this.filters, this.check, this.blockSize);
+    }
+
+    private void release(Encoder encoder) {
+        encoder.reset();
+        this.encoders.offer(encoder);
+    }
+
+    /**
+     * Runs tasks to completion, propagating the first {@link IOException} thrown by any of them.
+     */
+    static void invoke(ForkJoinPool pool, final List<? extends RecursiveAction> tasks) throws IOException {
+        try {
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            // ForkJoinPool may rethrow a copy of the exception, wrapping the original.
+            for (Throwable cause : Throwables.getCausalChain(e)) {
+                Throwables.propagateIfInstanceOf(cause, IOException.class);
+            }
+            throw e;
+        }
+    }
+
+    /** Compresses one chunk as a standalone stream, from which the block(s) are extracted. */
+    private class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] src;
+        private final int offset;
+        private final int len;
+        private byte[] stream;
+        private int streamLen;
+        private int indexOffset;
+        private List<XZFormat.Record> records;
+
+        private BlockTask(byte[] src, int offset, int len) {
+            this.src = src;
+            this.offset = offset;
+            this.len = len;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                Encoder encoder = borrow();
+                try {
+                    compress(encoder);
+                }
+                catch (IOException | RuntimeException e) {
+                    encoder.end();
+                    throw e;
+                }
+                release(encoder);
+
+                int footerOffset = this.streamLen - XZFormat.FOOTER_SIZE;
+                int indexSize = (int) XZFormat.readIndexSize(this.stream, footerOffset);
+                this.indexOffset = footerOffset - indexSize;
+                this.records = XZFormat.readIndex(this.stream, this.indexOffset, indexSize);
+            }
+            catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        private void compress(Encoder encoder) throws IOException {
+            this.stream = new byte[this.len / 2 + 1024];
+            encoder.setInput(this.src, this.offset, this.len);
+            encoder.finish();
+            while (!encoder.finished()) {
+                if (this.streamLen == this.stream.length) {
+                    this.stream = Arrays.copyOf(this.stream, this.stream.length * 2);
+                }
+                this.streamLen += encoder.encode(this.stream, this.streamLen, this.stream.length - this.streamLen);
+            }
+        }
+
+        private void writeBlocks(ByteArrayOutputStream out) {
+            out.write(this.stream, XZFormat.HEADER_SIZE, this.indexOffset - XZFormat.HEADER_SIZE);
+        }
+    }
+
+}
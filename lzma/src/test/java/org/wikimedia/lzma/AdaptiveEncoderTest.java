@@ -0,0 +1,86 @@
+package org.wikimedia.lzma;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class AdaptiveEncoderTest {
+
+    @Test
+    public void testRoundTrip() throws IOException, LzmaException {
+        AdaptiveEncoder encoder = AdaptiveEncoder.builder().presets(0, 1, 6).build();
+        byte[] input = getTestResourceBytes("barack_obama.html");
+        assertThat(Lzma.decompress(encoder.compress("text/html", input)), equalTo(input));
+
+        List<AdaptiveEncoder.Measurement> profile = encoder.getProfile("text/html");
+        assertThat(profile.size(), equalTo(3));
+        encoder.compress("text/html", input);
+        assertThat(encoder.getProfile("text/html"), sameInstance(profile));
+
+        encoder.invalidate("text/html");
+        assertThat(encoder.getProfile("text/html"), nullValue());
+    }
+
+    @Test
+    public void testUnboundedSelectsBestRatio() throws IOException, LzmaException {
+        AdaptiveEncoder encoder = AdaptiveEncoder.builder().presets(0, 6).candidate(FilterChain.builder().delta(1).lzma2(Options.fromPreset(0)).build()).build();
+        byte[] input = getTestResourceBytes("san_antonio.html");
+        FilterChain selected = encoder.select("text/html", input);
+
+        AdaptiveEncoder.Measurement best = null;
+        for (AdaptiveEncoder.Measurement m : encoder.getProfile("text/html")) {
+            if (best == null || m.getRatio() > best.getRatio()) {
+                best = m;
+            }
+        }
+        assertThat(selected, equalTo(best.getFilters()));
+    }
+
+    @Test
+    public void testUnattainableBudgetSelectsFastest() throws IOException, LzmaException {
+        AdaptiveEncoder encoder = AdaptiveEncoder.builder().presets(0, 6).maxLatency(1, TimeUnit.NANOSECONDS).build();
+        byte[] input = getTestResourceBytes("san_antonio.html");
+        FilterChain selected = encoder.select("text/html", input);
+
+        AdaptiveEncoder.Measurement fastest = null;
+        for (AdaptiveEncoder.Measurement m : encoder.getProfile("text/html")) {
+            if (fastest == null || m.getThroughput() > fastest.getThroughput()) {
+                fastest = m;
+            }
+        }
+        assertThat(fastest, notNullValue());
+        assertThat(selected, equalTo(fastest.getFilters()));
+    }
+
+    @Test
+    public void testSmallFirstInput() throws IOException, LzmaException {
+        AdaptiveEncoder encoder = AdaptiveEncoder.builder().presets(1, 6).build();
+        byte[] small = "a short string".getBytes("UTF-8");
+
+        // Too small to profile from; The first candidate is used, and nothing is cached
+        assertThat(encoder.select("text/html", small), equalTo(FilterChain.lzma2(1)));
+        assertThat(Lzma.decompress(encoder.compress("text/html", small)), equalTo(small));
+        assertThat(encoder.getProfile("text/html"), nullValue());
+
+        encoder.select("text/html", getTestResourceBytes("san_antonio.html"));
+        assertThat(encoder.getProfile("text/html").size(), equalTo(2));
+    }
+
+    private byte[] getTestResourceBytes(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(String.format("/%s", name))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+}
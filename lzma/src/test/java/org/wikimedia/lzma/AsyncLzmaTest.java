@@ -0,0 +1,156 @@
+package org.wikimedia.lzma;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.UnsignedLong;
+
+public class AsyncLzmaTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] input = getTestResourceBytes("barack_obama.html");
+        try (AsyncLzma lzma = new AsyncLzma(2, 16)) {
+            ByteBuffer compressed = lzma.compress(ByteBuffer.wrap(input)).get();
+            assertThat(Lzma.decompress(toArray(compressed)), equalTo(input));
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(compressed.remaining());
+            direct.put(compressed.duplicate()).flip();
+            assertThat(toArray(lzma.decompress(direct).get()), equalTo(input));
+            assertThat(direct.position(), equalTo(0));
+        }
+    }
+
+    @Test
+    public void testCorruptInput() throws Exception {
+        byte[] compressed = Lzma.compress(getTestResourceBytes("foobar.html"));
+        compressed[compressed.length / 2] ^= 0xff;
+        try (AsyncLzma lzma = new AsyncLzma(1, 1)) {
+            lzma.decompress(ByteBuffer.wrap(compressed)).get();
+            fail("corrupt input decoded");
+        }
+        catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(LzmaException.class));
+        }
+    }
+
+    @Test
+    public void testRejectsWhenQueueFull() throws Exception {
+        CodecPool pool = new CodecPool(1, 60, TimeUnit.SECONDS, 64 * 1024);
+        Encoder held = pool.borrowEncoder(Lzma.DEFAULT_FILTERS, Lzma.DEFAULT_CHECK);
+        try (AsyncLzma lzma = new AsyncLzma(1, 1, pool)) {
+            ByteBuffer src = ByteBuffer.wrap(getTestResourceBytes("foobar.html"));
+
+            // The worker waits on the pool, the next request waits in the queue, and the third is rejected
+            CompletableFuture<ByteBuffer> running = lzma.compress(src);
+            awaitEmptyQueue(lzma);
+            CompletableFuture<ByteBuffer> queued = lzma.compress(src);
+            CompletableFuture<ByteBuffer> rejected = lzma.compress(src);
+            assertCause(rejected, RejectedExecutionException.class);
+
+            pool.release(held);
+            assertThat(Lzma.decompress(toArray(running.get())), equalTo(toArray(src)));
+            assertThat(Lzma.decompress(toArray(queued.get())), equalTo(toArray(src)));
+        }
+        finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testDeadlineAndCancellation() throws Exception {
+        CodecPool pool = new CodecPool(1, 60, TimeUnit.SECONDS, 64 * 1024);
+        Encoder held = pool.borrowEncoder(Lzma.DEFAULT_FILTERS, Lzma.DEFAULT_CHECK);
+        try (AsyncLzma lzma = new AsyncLzma(1, 4, pool)) {
+            ByteBuffer src = ByteBuffer.wrap(getTestResourceBytes("san_antonio.html"));
+
+            CompletableFuture<ByteBuffer> late = lzma.compress(src, Lzma.DEFAULT_FILTERS, Lzma.DEFAULT_CHECK, 50, TimeUnit.MILLISECONDS);
+            CompletableFuture<ByteBuffer> cancelled = lzma.compress(src);
+            assertThat(cancelled.cancel(true), is(true));
+            assertCause(late, TimeoutException.class);
+
+            // Both are abandoned once the worker proceeds; Subsequent requests are unaffected
+            pool.release(held);
+            ByteBuffer compressed = lzma.compress(src).get();
+            assertThat(Lzma.decompress(toArray(compressed)), equalTo(toArray(src)));
+            ByteBuffer decompressed = lzma.decompress(compressed, UnsignedLong.MAX_VALUE, 10, TimeUnit.SECONDS).get();
+            assertThat(toArray(decompressed), equalTo(toArray(src)));
+            assertThat(pool.getLeased(), equalTo(0));
+        }
+        finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testCallerExecutor() throws Exception {
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        try (CodecPool pool = new CodecPool(1, 60, TimeUnit.SECONDS, 64 * 1024);
+                AsyncLzma lzma = new AsyncLzma(tasks::add, 2, pool)) {
+            ByteBuffer src = ByteBuffer.wrap(getTestResourceBytes("foobar.html"));
+
+            // Requests beyond the limit are rejected until those admitted have run
+            CompletableFuture<ByteBuffer> first = lzma.compress(src);
+            CompletableFuture<ByteBuffer> second = lzma.compress(src);
+            assertCause(lzma.compress(src), RejectedExecutionException.class);
+            assertThat(lzma.getQueued(), equalTo(2));
+
+            while (!tasks.isEmpty()) {
+                tasks.poll().run();
+            }
+            assertThat(Lzma.decompress(toArray(first.get())), equalTo(toArray(src)));
+            assertThat(Lzma.decompress(toArray(second.get())), equalTo(toArray(src)));
+            assertThat(lzma.getQueued(), equalTo(0));
+
+            CompletableFuture<ByteBuffer> third = lzma.compress(src);
+            tasks.poll().run();
+            assertThat(Lzma.decompress(toArray(third.get())), equalTo(toArray(src)));
+        }
+    }
+
+    private static void awaitEmptyQueue(AsyncLzma lzma) throws InterruptedException {
+        while (lzma.getQueued() > 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void assertCause(CompletableFuture<?> future, Class<?> type) throws InterruptedException {
+        try {
+            future.get();
+            fail("expected " + type.getSimpleName());
+        }
+        catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(type));
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private byte[] getTestResourceBytes(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(String.format("/%s", name))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+package org.wikimedia.lzma;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.primitives.UnsignedLong;
+
+public class CodecPoolTest {
+    private static final int BUF_SIZE = 64 * 1024;
+
+    private CodecPool pool;
+
+    @Before
+    public void setUp() {
+        this.pool = new CodecPool(2, 1, TimeUnit.HOURS, BUF_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        this.pool.close();
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        Encoder encoder = this.pool.borrowEncoder(FilterChain.lzma2(1), Check.CRC32);
+        roundTrip(encoder);
+        this.pool.release(encoder);
+
+        // A returned encoder is reset, and leased again for the same configuration
+        Encoder again = this.pool.borrowEncoder(FilterChain.lzma2(1), Check.CRC32);
+        assertThat(again, sameInstance(encoder));
+        roundTrip(again);
+        this.pool.release(again);
+
+        assertThat(this.pool.getHits(), equalTo(1L));
+        assertThat(this.pool.getMisses(), equalTo(1L));
+        assertThat(this.pool.getIdle(), equalTo(1));
+        assertThat(this.pool.getLeased(), equalTo(0));
+    }
+
+    @Test
+    public void testKeys() throws Exception {
+        Encoder encoder = this.pool.borrowEncoder(FilterChain.lzma2(1), Check.CRC32);
+        this.pool.release(encoder);
+        assertThat(this.pool.borrowEncoder(FilterChain.lzma2(1), Check.CRC64), not(sameInstance(encoder)));
+        assertThat(this.pool.getMisses(), equalTo(2L));
+        assertThat(this.pool.getHits(), equalTo(0L));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        Encoder a = this.pool.borrowEncoder(FilterChain.lzma2(1), Check.CRC32);
+        Decoder b = this.pool.borrowDecoder(UnsignedLong.MAX_VALUE, EnumSet.of(Decoder.Flags.NONE));
+        this.pool.release(a);
+        this.pool.release(b);
+
+        // At capacity; The least recently used idle coder (a) makes room
+        Encoder c = this.pool.borrowEncoder(FilterChain.lzma2(2), Check.CRC32);
+        assertThat(a.isEnded(), is(true));
+        assertThat(b.isEnded(), is(false));
+        assertThat(this.pool.getEvictions(), equalTo(1L));
+        this.pool.release(c);
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception {
+        try (CodecPool shortLived = new CodecPool(2, 0, TimeUnit.NANOSECONDS, BUF_SIZE)) {
+            Encoder encoder = shortLived.borrowEncoder(1, Check.NONE);
+            shortLived.release(encoder);
+            Thread.sleep(1);
+            shortLived.evictIdle();
+            assertThat(encoder.isEnded(), is(true));
+            assertThat(shortLived.getIdle(), equalTo(0));
+        }
+    }
+
+    @Test
+    public void testWaitsAtCapacity() throws Exception {
+        final Encoder a = this.pool.borrowEncoder(FilterChain.lzma2(1), Check.CRC32);
+        this.pool.borrowEncoder(FilterChain.lzma2(1), Check.CRC32);
+
+        final AtomicReference<Encoder> borrowed = new AtomicReference<>();
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    borrowed.set(CodecPoolTest.this.pool.borrowEncoder(FilterChain.lzma2(1), Check.CRC32));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                catch (MemoryLimitException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        waiter.start();
+        waiter.join(100);
+        assertThat(waiter.isAlive(), is(true));
+
+        this.pool.release(a);
+        waiter.join(5000);
+        assertThat(borrowed.get(), sameInstance(a));
+    }
+
+    @Test
+    public void testEndedIsDiscarded() throws Exception {
+        Decoder decoder = this.pool.borrowDecoder(UnsignedLong.MAX_VALUE, EnumSet.of(Decoder.Flags.NONE));
+        decoder.end();
+        this.pool.release(decoder);
+        assertThat(this.pool.getIdle(), equalTo(0));
+    }
+
+    @Test
+    public void testBudgetRejects() throws Exception {
+        long footprint = FilterChain.lzma2(1).getEncoderMemoryUsage() + 2 * BUF_SIZE;
+        MemoryBudget budget = new MemoryBudget(footprint, MemoryBudget.Policy.REJECT);
+        try (CodecPool budgeted = new CodecPool(2, 1, TimeUnit.HOURS, BUF_SIZE, budget)) {
+            Encoder a = budgeted.borrowEncoder(FilterChain.lzma2(1), Check.CRC32);
+            assertThat(budget.getUsed(), equalTo(footprint));
+            try {
+                budgeted.borrowEncoder(FilterChain.lzma2(1), Check.CRC32);
+                fail("expected MemoryLimitException");
+            }
+            catch (MemoryLimitException e) {
+                assertThat(budgeted.getLeased(), equalTo(1));
+            }
+
+            // Once idle, the encoder is evicted to make room.
+            budgeted.release(a);
+            Encoder b = budgeted.borrowEncoder(FilterChain.lzma2(1), Check.CRC64);
+            assertThat(budgeted.getEvictions(), equalTo(1L));
+            assertThat(budget.getUsed(), equalTo(footprint));
+            budgeted.release(b);
+        }
+        assertThat(budget.getUsed(), equalTo(0L));
+    }
+
+    @Test
+    public void testBudgetQueues() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(1024 * 1024, MemoryBudget.Policy.QUEUE);
+        final MemoryBudget.Reservation held = budget.reserve(1024 * 1024);
+
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                held.close();
+            }
+        };
+        releaser.start();
+        try (CodecPool budgeted = new CodecPool(2, 1, TimeUnit.HOURS, BUF_SIZE, budget)) {
+            // Unlimited, the decoder queues for its share of the budget, and is limited to what it reserved.
+            Decoder decoder = budgeted.borrowDecoder(UnsignedLong.MAX_VALUE, EnumSet.of(Decoder.Flags.NONE));
+            assertThat(budget.getUsed(), equalTo(512L * 1024));
+            assertThat(decoder.getMemoryLimit(), equalTo(UnsignedLong.valueOf(512 * 1024 - 2 * BUF_SIZE)));
+            budgeted.release(decoder);
+        }
+        releaser.join();
+    }
+
+    @Test(timeout = 10000)
+    public void testBudgetedDecoders() throws Exception {
+        byte[] input = "hello, hello, hello world".getBytes("UTF-8");
+        byte[] compressed = Lzma.compress(input);
+        MemoryBudget budget = new MemoryBudget(64 * 1024 * 1024, MemoryBudget.Policy.QUEUE);
+        try (CodecPool budgeted = new CodecPool(2, 1, TimeUnit.HOURS, BUF_SIZE, budget)) {
+            // Two unlimited decoders are leased at once, each reserving no more than its share
+            Decoder a = budgeted.borrowDecoder(UnsignedLong.MAX_VALUE, EnumSet.of(Decoder.Flags.NONE));
+            Decoder b = budgeted.borrowDecoder(UnsignedLong.MAX_VALUE, EnumSet.of(Decoder.Flags.NONE));
+            assertThat(budget.getUsed(), equalTo(64L * 1024 * 1024));
+            assertThat(a.getMemoryLimit(), equalTo(budgeted.getDecoderMemoryLimit()));
+            for (Decoder decoder : new Decoder[] { a, b }) {
+                byte[] result = new byte[input.length];
+                decoder.setInput(compressed);
+                decoder.finish();
+                assertThat(decoder.decode(result), equalTo(input.length));
+                assertThat(result, equalTo(input));
+            }
+            budgeted.release(a);
+            budgeted.release(b);
+        }
+        assertThat(budget.getUsed(), equalTo(0L));
+
+        // An explicit limit is what each decoder reserves
+        UnsignedLong limit = UnsignedLong.valueOf(16 * 1024 * 1024);
+        try (CodecPool budgeted = new CodecPool(4, 1, TimeUnit.HOURS, BUF_SIZE, budget, limit)) {
+            Decoder decoder = budgeted.borrowDecoder(UnsignedLong.MAX_VALUE, EnumSet.of(Decoder.Flags.NONE));
+            assertThat(decoder.getMemoryLimit(), equalTo(limit));
+            assertThat(budget.getUsed(), equalTo(limit.longValue() + 2 * BUF_SIZE));
+            budgeted.release(decoder);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReleaseForeign() {
+        Encoder encoder = new Encoder(FilterChain.lzma2(1), Check.NONE, BUF_SIZE);
+        try {
+            this.pool.release(encoder);
+        }
+        finally {
+            encoder.end();
+        }
+    }
+
+    private void roundTrip(Encoder encoder) throws IOException {
+        byte[] input = "hello, hello, hello world".getBytes("UTF-8");
+        byte[] compressed = new byte[1024];
+        encoder.setInput(input);
+        encoder.finish();
+        int len = encoder.encode(compressed);
+
+        Decoder decoder = new Decoder();
+        decoder.setInput(compressed, 0, len);
+        byte[] result = new byte[input.length];
+        decoder.decode(result);
+        decoder.end();
+        assertThat(result, equalTo(input));
+    }
+
+}
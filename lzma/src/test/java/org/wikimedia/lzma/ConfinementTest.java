@@ -0,0 +1,54 @@
+package org.wikimedia.lzma;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class ConfinementTest {
+
+    @Test
+    public void testConfinement() throws Exception {
+        Confinement confinement = new Confinement();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Reentrant on the owning thread
+            confinement.enter();
+            confinement.enter();
+            confinement.exit();
+            assertThat(tryEnter(executor, confinement), instanceOf(ConcurrentModificationException.class));
+
+            // ...and released (handed off) once the outermost call exits.
+            confinement.exit();
+            assertThat(tryEnter(executor, confinement), nullValue());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Throwable tryEnter(ExecutorService executor, final Confinement confinement) throws InterruptedException {
+        try {
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    confinement.enter();
+                    confinement.exit();
+                    return null;
+                }
+            }).get();
+            return null;
+        }
+        catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+}
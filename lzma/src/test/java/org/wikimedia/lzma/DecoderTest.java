@@ -1,14 +1,23 @@
 package org.wikimedia.lzma;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.wikimedia.lzma.Decoder.getFlags;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.zip.CRC32;
 
 import org.junit.Test;
 import org.wikimedia.lzma.Decoder.Flags;
 
+import com.google.common.primitives.UnsignedLong;
+
 public class DecoderTest {
 
     @Test
@@ -17,4 +26,164 @@ public class DecoderTest {
         assertThat(getFlags(EnumSet.of(Flags.NONE, Flags.TELL_NO_CHECK, Flags.CONCATENATED)), equalTo(1 | 8));
     }
 
+    @Test
+    public void testChunked() throws IOException {
+        byte[] input = testData();
+        byte[] compressed = compress(input);
+        Decoder decoder = new Decoder(UnsignedLong.MAX_VALUE, EnumSet.of(Flags.NONE), 4096);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] window = new byte[100];
+        int inPos = 0;
+
+        while (!decoder.finished()) {
+            if (decoder.needsInput()) {
+                int chunk = Math.min(37, compressed.length - inPos);
+                decoder.setInput(compressed, inPos, chunk);
+                inPos += chunk;
+            }
+            int len = decoder.decode(window);
+            result.write(window, 0, len);
+        }
+        decoder.end();
+
+        assertThat(result.toByteArray(), equalTo(input));
+        assertThat(decoder.getBytesRead(), equalTo((long) compressed.length));
+        assertThat(decoder.getBytesWritten(), equalTo((long) input.length));
+    }
+
+    @Test(expected = CorruptedInputException.class)
+    public void testTruncated() throws IOException {
+        byte[] compressed = compress(testData());
+        Decoder decoder = new Decoder();
+        byte[] output = new byte[64 * 1024];
+        try {
+            decoder.setInput(compressed, 0, compressed.length - 10);
+            decoder.decode(output);
+            assertThat(decoder.needsInput(), is(true));
+            assertThat(decoder.finished(), is(false));
+            decoder.finish();
+            decoder.decode(output);
+        }
+        finally {
+            decoder.end();
+        }
+    }
+
+    @Test(expected = CorruptedInputException.class)
+    public void testCorrupt() throws IOException {
+        byte[] compressed = compress(testData());
+        compressed[compressed.length / 2] ^= 0xff;
+        Decoder decoder = new Decoder();
+        try {
+            decoder.setInput(compressed);
+            decoder.decode(new byte[64 * 1024]);
+        }
+        finally {
+            decoder.end();
+        }
+    }
+
+    @Test(expected = FormatException.class)
+    public void testNotXz() throws IOException {
+        Decoder decoder = new Decoder();
+        try {
+            decoder.setInput(testData());
+            decoder.decode(new byte[1024]);
+        }
+        finally {
+            decoder.end();
+        }
+    }
+
+    @Test(expected = MemoryLimitException.class)
+    public void testMemoryLimit() throws IOException {
+        Decoder decoder = new Decoder(UnsignedLong.valueOf(1024), EnumSet.of(Flags.NONE));
+        try {
+            decoder.setInput(compress(testData()));
+            decoder.decode(new byte[1024]);
+        }
+        finally {
+            decoder.end();
+        }
+    }
+
+    @Test
+    public void testRaiseMemoryLimit() throws IOException {
+        byte[] input = testData();
+        Decoder decoder = new Decoder(UnsignedLong.valueOf(1024), EnumSet.of(Flags.NONE));
+        byte[] output = new byte[input.length + 1];
+        try {
+            decoder.setInput(compress(input));
+            try {
+                decoder.decode(output);
+                fail("expected MemoryLimitException");
+            }
+            catch (MemoryLimitException e) {
+                assertThat(decoder.getMemoryLimit(), equalTo(UnsignedLong.valueOf(1024)));
+            }
+
+            // Decoding resumes with the limit raised.
+            decoder.setMemoryLimit(UnsignedLong.MAX_VALUE);
+            assertThat(decoder.decode(output), equalTo(input.length));
+            assertThat(decoder.getMemoryUsage(), greaterThan(0L));
+        }
+        finally {
+            decoder.end();
+        }
+    }
+
+    @Test
+    public void testTellUnsupportedCheck() throws IOException {
+        byte[] input = testData();
+        byte[] compressed = compress(input);
+
+        // Change the check (in the stream header and footer) from CRC32 to ID 2, a reserved
+        // 4-byte check that liblzma does not implement
+        compressed[7] = 2;
+        putCrc32(compressed, 8, compressed, 6, 2);
+        int footer = compressed.length - XZFormat.FOOTER_SIZE;
+        compressed[footer + 9] = 2;
+        putCrc32(compressed, footer, compressed, footer + 4, 6);
+
+        Decoder decoder = new Decoder(UnsignedLong.MAX_VALUE, EnumSet.of(Flags.TELL_UNSUPPORTED_CHECK));
+        byte[] output = new byte[input.length];
+        try {
+            decoder.setInput(compressed);
+            decoder.finish();
+            assertThat(decoder.decode(output), equalTo(input.length));
+            assertThat(decoder.finished(), is(true));
+            assertThat(output, equalTo(input));
+        }
+        finally {
+            decoder.end();
+        }
+    }
+
+    private static void putCrc32(byte[] dst, int offset, byte[] src, int srcOffset, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(src, srcOffset, len);
+        long value = crc.getValue();
+        for (int i = 0; i < 4; i++) {
+            dst[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static byte[] testData() {
+        byte[] data = new byte[32 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ((i % 251) ^ (i / 1024));
+        }
+        return data;
+    }
+
+    private static byte[] compress(byte[] input) throws IOException {
+        Encoder encoder = new Encoder(1, Check.CRC32);
+        byte[] output = new byte[input.length * 2];
+        encoder.setInput(input);
+        encoder.finish();
+        int len = encoder.encode(output);
+        encoder.end();
+        return Arrays.copyOf(output, len);
+    }
+
 }
@@ -2,20 +2,25 @@ package org.wikimedia.lzma;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.EnumSet;
 
 import org.junit.Test;
 
 import com.google.common.base.Throwables;
+import com.google.common.primitives.UnsignedLong;
 
 public class EncodeDecodeTest {
     @Test
@@ -35,6 +40,150 @@ public class EncodeDecodeTest {
         assertRoundTrip(new Encoder(), new Decoder(), "barack_obama.html");
     }
 
+    @Test
+    public void testMultithreaded() throws IOException {
+        assumeTrue(Encoder.isMultithreadingSupported() && Decoder.isMultithreadingSupported());
+        Encoder compress = new Encoder(Options.fromPreset(1), Check.CRC32, 4, 128 * 1024, 0);
+        assertThat(compress.isMultithreaded(), equalTo(true));
+        UnsignedLong memLimit = UnsignedLong.valueOf(256 * 1024 * 1024);
+        Decoder decompress = new Decoder(EnumSet.of(Decoder.Flags.NONE), 4, memLimit, memLimit);
+        assertThat(decompress.isMultithreaded(), equalTo(true));
+
+        assertRoundTrip(compress, decompress, "barack_obama.html");
+        assertRoundTrip(compress, decompress, "san_antonio.html");
+        compress.end();
+        decompress.end();
+    }
+
+    @Test
+    public void testStreaming() throws IOException {
+        Encoder compress = new Encoder(Options.fromPreset(6), Check.CRC64, 16 * 1024);
+        byte[] inData = getTestResourceBytes("barack_obama.html");
+        byte[] outBuf = new byte[inData.length];
+        byte[] window = new byte[1024];
+        int inPos = 0, outSize = 0;
+
+        // Feed input in small chunks, and drain output through a window smaller than the buffers.
+        while (!compress.finished()) {
+            if (compress.needsInput() && inPos < inData.length) {
+                int chunk = Math.min(8 * 1024, inData.length - inPos);
+                compress.setInput(inData, inPos, chunk);
+                inPos += chunk;
+                if (inPos == inData.length) {
+                    compress.finish();
+                }
+            }
+            int len = compress.encode(window);
+            System.arraycopy(window, 0, outBuf, outSize, len);
+            outSize += len;
+        }
+        compress.end();
+
+        assertThat(compress.getBytesRead(), equalTo((long) inData.length));
+        assertThat(compress.getBytesWritten(), equalTo((long) outSize));
+        assertMagicBytes(outBuf);
+
+        Decoder decompress = new Decoder();
+        decompress.setInput(outBuf, 0, outSize);
+        byte[] resData = new byte[inData.length];
+        int resSize = decompress.decode(resData, 0, resData.length);
+        assertThat("round-trip result does not match input", Arrays.copyOf(resData, resSize), equalTo(inData));
+        decompress.end();
+    }
+
+    @Test
+    public void testDirectBuffers() throws IOException {
+        byte[] inData = getTestResourceBytes("san_antonio.html");
+        ByteBuffer src = ByteBuffer.allocateDirect(inData.length);
+        src.put(inData).flip();
+        ByteBuffer compressed = ByteBuffer.allocateDirect(inData.length);
+
+        Encoder compress = new Encoder(Options.fromPreset(1), Check.CRC32, 1024);
+        compress.encode(src, compressed);
+        assertThat(src.hasRemaining(), equalTo(false));
+        compress.finish();
+        while (!compress.finished()) {
+            compress.encode(src, compressed);
+        }
+        compress.end();
+        compressed.flip();
+        assertThat(compress.getBytesWritten(), equalTo((long) compressed.remaining()));
+
+        // Decode through a small output window, with input supplied in chunks.
+        Decoder decompress = new Decoder(UnsignedLong.MAX_VALUE, EnumSet.of(Decoder.Flags.NONE), 1024);
+        ByteBuffer window = ByteBuffer.allocateDirect(4096);
+        ByteBuffer chunk = compressed.duplicate();
+        chunk.limit(0);
+        byte[] resData = new byte[inData.length];
+        int resSize = 0;
+        while (!decompress.finished()) {
+            if (!chunk.hasRemaining()) {
+                chunk.limit(Math.min(chunk.limit() + 1000, compressed.limit()));
+            }
+            decompress.decode(chunk, window);
+            window.flip();
+            int len = window.remaining();
+            window.get(resData, resSize, len);
+            resSize += len;
+            window.clear();
+        }
+        decompress.end();
+
+        assertThat(resSize, equalTo(inData.length));
+        assertThat(resData, equalTo(inData));
+    }
+
+    @Test
+    public void testRaw() throws IOException {
+        byte[] inData = getTestResourceBytes("foobar.html");
+        FilterChain[] chains = {
+                FilterChain.lzma2(6),
+                FilterChain.builder().lzma1(Options.fromPreset(6)).build(),
+                FilterChain.builder().delta(1).lzma2(Options.fromPreset(1)).build() };
+
+        int xzSize = roundTrip(new Encoder(FilterChain.lzma2(6), Check.CRC64), new Decoder(), inData);
+        for (FilterChain chain : chains) {
+            int rawSize = roundTrip(new Encoder(Format.RAW, chain), new Decoder(Format.RAW, chain), inData);
+            if (chain.equals(chains[0])) {
+                // Without a container, headers, index or check, output is smaller.
+                assertThat(rawSize, lessThan(xzSize));
+            }
+        }
+    }
+
+    @Test
+    public void testAlone() throws IOException {
+        byte[] inData = getTestResourceBytes("foobar.html");
+        FilterChain chain = FilterChain.builder().lzma1(Options.fromPreset(6)).build();
+        roundTrip(new Encoder(Format.LZMA_ALONE, chain), new Decoder(Format.LZMA_ALONE, null), inData);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAloneRequiresLzma1() {
+        new Encoder(Format.LZMA_ALONE, FilterChain.lzma2(6));
+    }
+
+    /** Compresses and decompresses {@code inData}, returning the compressed size. */
+    private int roundTrip(Encoder compress, Decoder decompress, byte[] inData) throws IOException {
+        byte[] outBuf = new byte[inData.length + 1024];
+        compress.setInput(inData);
+        compress.finish();
+        int outSize = compress.encode(outBuf);
+        assertThat(compress.finished(), equalTo(true));
+        compress.end();
+
+        decompress.setInput(outBuf, 0, outSize);
+        decompress.finish();
+        byte[] resData = new byte[inData.length];
+        int resSize = decompress.decode(resData, 0, resData.length);
+        assertThat(Arrays.copyOf(resData, resSize), equalTo(inData));
+        // Reaching the end of the stream may require another call, once the output is complete.
+        decompress.decode(new byte[1]);
+        assertThat(decompress.finished(), equalTo(true));
+        decompress.end();
+        return outSize;
+    }
+
     private void assertMagicBytes(byte[] data) {
         assertThat(data.length, greaterThan(6));
         // The xz magic header is 6 bytes: FD 37 7A 58 5A 00
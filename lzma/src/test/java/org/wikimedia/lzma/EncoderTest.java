@@ -1,12 +1,24 @@
 package org.wikimedia.lzma;
 
+import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertThat;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.io.ByteStreams;
+
 public class EncoderTest {
     private Encoder encoder;
 
@@ -33,7 +45,114 @@ public class EncoderTest {
         assertThat(encoder.needsInput(), is(false));
     }
 
+    @Test
+    public void testFullFlush() throws IOException {
+        byte[] out = new byte[1024];
+        setInput();
+        // Without a flush, a single byte of input is buffered by the encoder
+        int len = this.encoder.encode(out, 0, out.length, Encoder.Flush.NONE);
+        assertThat(this.encoder.needsInput(), is(true));
+        assertThat(this.encoder.encode(out, len, out.length - len, Encoder.Flush.FULL), greaterThan(0));
+        assertThat(this.encoder.finished(), is(false));
+        setInput();
+        this.encoder.finish();
+        assertThat(this.encoder.encode(out), lessThan(out.length));
+        assertThat(this.encoder.finished(), is(true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInputDuringFlush() throws IOException {
+        setInput();
+        // A one byte output window guarantees the flush is left incomplete
+        this.encoder.encode(new byte[1], 0, 1, Encoder.Flush.FULL);
+        setInput();
+    }
+
+    @Test
+    public void testBufferGrowth() throws IOException {
+        int highWaterMark = 8192;
+        byte[] input = getTestResourceBytes("san_antonio.html");
+        Encoder encoder = new Encoder(FilterChain.lzma2(1), Check.CRC64, highWaterMark);
+        try {
+            assertThat(encoder.getBufferCapacity(), lessThanOrEqualTo(2L * highWaterMark));
+
+            // Input larger than the high-water mark is accepted at once
+            byte[] out = new byte[(int) Lzma.maxCompressedSize(input.length)];
+            encoder.setInput(input);
+            encoder.finish();
+            int len = encoder.encode(out);
+            assertThat(encoder.finished(), is(true));
+            assertThat(Lzma.decompress(Arrays.copyOf(out, len)), equalTo(input));
+            assertThat(encoder.getBufferCapacity(), greaterThan(2L * highWaterMark));
+
+            encoder.reset();
+            assertThat(encoder.getBufferCapacity(), lessThanOrEqualTo(2L * highWaterMark));
+        }
+        finally {
+            encoder.end();
+        }
+    }
+
+    @Test
+    public void testSmallInputBuffers() throws IOException {
+        // The default high-water mark is megabytes; A small input needs only a few kilobytes
+        Encoder encoder = new Encoder(FilterChain.lzma2(1), Check.CRC64);
+        try {
+            byte[] out = new byte[1024];
+            encoder.setInput("a short string".getBytes("UTF-8"));
+            encoder.finish();
+            encoder.encode(out);
+            assertThat(encoder.finished(), is(true));
+            assertThat(encoder.getBufferCapacity(), lessThanOrEqualTo(2L * Stream.MIN_BUFFER_SIZE));
+        }
+        finally {
+            encoder.end();
+        }
+    }
+
+    @Test
+    public void testSetInputAllocation() throws IOException {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        long id = Thread.currentThread().getId();
+        byte[] input = getTestResourceBytes("san_antonio.html");
+        byte[] out = new byte[64 * 1024];
+        Encoder encoder = new Encoder(FilterChain.lzma2(1), Check.CRC64);
+        try {
+            // Warm up, growing the buffers to their working size
+            encodeChunks(encoder, input, out);
+            long allocated = threads.getThreadAllocatedBytes(id);
+            encodeChunks(encoder, input, out);
+            assertThat(threads.getThreadAllocatedBytes(id) - allocated, lessThan(1024L));
+        }
+        finally {
+            encoder.end();
+        }
+    }
+
+    private static void encodeChunks(Encoder encoder, byte[] input, byte[] out) throws IOException {
+        for (int offset = 0; offset < input.length; offset += 1024) {
+            encoder.setInput(input, offset, Math.min(1024, input.length - offset));
+            while (!encoder.needsInput()) {
+                encoder.encode(out, 0, out.length, Encoder.Flush.NONE);
+            }
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        return threads;
+    }
+
     private void setInput() {
         this.encoder.setInput(new byte[] { 0 });
     }
+
+    private byte[] getTestResourceBytes(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(String.format("/%s", name))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package org.wikimedia.lzma;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.UnsignedLong;
+
+public class FileCompressorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] input = getTestResourceBytes("barack_obama.html");
+        Path src = write(input);
+        Path compressed = this.folder.newFile().toPath();
+        Path decompressed = this.folder.newFile().toPath();
+
+        long size = FileCompressor.compress(src, compressed);
+        assertThat(size, equalTo(Files.size(compressed)));
+        assertThat(Lzma.decompress(Files.readAllBytes(compressed)), equalTo(input));
+
+        assertThat(FileCompressor.decompress(compressed, decompressed), equalTo((long) input.length));
+        assertThat(Files.readAllBytes(decompressed), equalTo(input));
+    }
+
+    @Test
+    public void testSmallWindows() throws IOException {
+        byte[] input = getTestResourceBytes("san_antonio.html");
+        Path src = write(input);
+        Path compressed = this.folder.newFile().toPath();
+        Path decompressed = this.folder.newFile().toPath();
+
+        FileCompressor.compress(src, compressed, FilterChain.lzma2(1), Check.CRC32, 4096);
+        FileCompressor.decompress(compressed, decompressed, UnsignedLong.MAX_VALUE, 1000);
+        assertThat(Files.readAllBytes(decompressed), equalTo(input));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        Path src = write(new byte[0]);
+        Path compressed = this.folder.newFile().toPath();
+        Path decompressed = this.folder.newFile().toPath();
+
+        FileCompressor.compress(src, compressed);
+        assertThat(FileCompressor.decompress(compressed, decompressed), equalTo(0L));
+    }
+
+    @Test(expected = CorruptedInputException.class)
+    public void testTruncated() throws IOException {
+        byte[] xz = Lzma.compress(getTestResourceBytes("foobar.html"));
+        Path src = this.folder.newFile().toPath();
+        Files.write(src, Arrays.copyOf(xz, xz.length - 20));
+        FileCompressor.decompress(src, this.folder.newFile().toPath());
+    }
+
+    private Path write(byte[] data) throws IOException {
+        Path path = this.folder.newFile().toPath();
+        Files.write(path, data);
+        return path;
+    }
+
+    private byte[] getTestResourceBytes(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(String.format("/%s", name))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package org.wikimedia.lzma;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class FilterChainTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Options options = Options.fromPreset(1);
+        FilterChain[] chains = {
+                FilterChain.lzma2(1),
+                FilterChain.builder().delta(4).lzma2(options).build(),
+                FilterChain.builder().x86().lzma2(options).build(),
+                FilterChain.builder().x86(4096).lzma2(options).build(),
+                FilterChain.builder().arm().lzma2(options).build(),
+                FilterChain.builder().armThumb().lzma2(options).build(),
+                FilterChain.builder().arm64().lzma2(options).build(),
+                FilterChain.builder().powerPC().lzma2(options).build(),
+                FilterChain.builder().ia64().lzma2(options).build(),
+                FilterChain.builder().sparc().lzma2(options).build(),
+                FilterChain.builder().delta(1).delta(2).x86().lzma2(options).build() };
+
+        byte[] input = getTestResourceBytes("san_antonio.html");
+        for (FilterChain chain : chains) {
+            Encoder encoder = new Encoder(chain, Check.CRC32);
+            byte[] compressed = new byte[input.length];
+            encoder.setInput(input);
+            encoder.finish();
+            int len = encoder.encode(compressed);
+            encoder.end();
+
+            try (InputStream in = new XZInputStream(new ByteArrayInputStream(compressed, 0, len))) {
+                assertThat(chain.toString(), ByteStreams.toByteArray(in), equalTo(input));
+            }
+        }
+    }
+
+    @Test
+    public void testSyncFlush() throws IOException {
+        // Unlike the BCJ filters, LZMA2 alone supports sync flushing
+        Encoder encoder = new Encoder(FilterChain.lzma2(1), Check.NONE);
+        byte[] out = new byte[1024];
+        encoder.setInput(new byte[] { 1, 2, 3 });
+        int len = encoder.encode(out, 0, out.length, Encoder.Flush.SYNC);
+        encoder.end();
+
+        Decoder decoder = new Decoder();
+        decoder.setInput(out, 0, len);
+        byte[] result = new byte[3];
+        assertThat(decoder.decode(result), equalTo(3));
+        assertThat(result, equalTo(new byte[] { 1, 2, 3 }));
+        decoder.end();
+    }
+
+    @Test
+    public void testEquality() {
+        assertThat(FilterChain.lzma2(6), equalTo(FilterChain.lzma2(6)));
+        assertThat(FilterChain.lzma2(6).hashCode(), equalTo(FilterChain.lzma2(6).hashCode()));
+        assertThat(FilterChain.lzma2(6), not(equalTo(FilterChain.lzma2(5))));
+        assertThat(
+                FilterChain.builder().delta(2).lzma2(Options.fromPreset(6)).build(),
+                not(equalTo(FilterChain.builder().delta(3).lzma2(Options.fromPreset(6)).build())));
+        assertThat(FilterChain.lzma2(6).getIds(), equalTo(Arrays.asList(Filter.IDs.FILTER_LZMA2)));
+    }
+
+    @Test
+    public void testOptionsAreCopied() {
+        Options options = Options.fromPreset(6);
+        FilterChain chain = FilterChain.builder().lzma2(options).build();
+        options.dict_size = 4096;
+        assertThat(chain, equalTo(FilterChain.lzma2(6)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEmpty() {
+        FilterChain.builder().build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLzmaNotLast() {
+        FilterChain.builder().lzma2(Options.fromPreset(1)).x86();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTooMany() {
+        FilterChain.builder().delta(1).delta(1).delta(1).delta(1).delta(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeltaDistance() {
+        FilterChain.builder().delta(257);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLzma1InXz() {
+        new Encoder(FilterChain.builder().lzma1(Options.fromPreset(1)).build(), Check.NONE);
+    }
+
+    @Test
+    public void testMemoryUsage() {
+        FilterChain small = FilterChain.lzma2(1);
+        FilterChain large = FilterChain.lzma2(9);
+        assertThat(large.getEncoderMemoryUsage(), greaterThan(small.getEncoderMemoryUsage()));
+        assertThat(large.getDecoderMemoryUsage(), lessThan(large.getEncoderMemoryUsage()));
+
+        Encoder encoder = new Encoder(small, Check.NONE);
+        assertThat(encoder.getMemoryUsage(), greaterThan(0L));
+        encoder.end();
+    }
+
+    private byte[] getTestResourceBytes(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(String.format("/%s", name))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+package org.wikimedia.lzma;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.UnsignedLong;
+
+public class LzmaTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (String name : new String[] { "foobar.html", "san_antonio.html", "barack_obama.html" }) {
+            byte[] input = getTestResourceBytes(name);
+            byte[] compressed = Lzma.compress(input);
+            assertThat(compressed.length, lessThan(input.length));
+            assertThat(Lzma.decompress(compressed), equalTo(input));
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertThat(Lzma.decompress(Lzma.compress(new byte[0])), equalTo(new byte[0]));
+    }
+
+    @Test
+    public void testStreamingInterop() throws IOException {
+        byte[] input = getTestResourceBytes("san_antonio.html");
+        FilterChain filters = FilterChain.builder().x86().lzma2(Options.fromPreset(1)).build();
+
+        // One-shot output is an ordinary .xz stream
+        try (InputStream in = new XZInputStream(new ByteArrayInputStream(Lzma.compress(input, filters, Check.SHA256)))) {
+            assertThat(ByteStreams.toByteArray(in), equalTo(input));
+        }
+
+        // ...and streaming output decodes one-shot
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Encoder encoder = new Encoder(filters, Check.CRC32);
+        try (OutputStream out = new XZOutputStream(compressed, encoder, XZOutputStream.DEFAULT_WINDOW_SIZE)) {
+            out.write(input);
+        }
+        encoder.end();
+        assertThat(Lzma.decompress(compressed.toByteArray()), equalTo(input));
+    }
+
+    @Test
+    public void testOffsets() throws IOException {
+        byte[] input = getTestResourceBytes("foobar.html");
+        byte[] src = new byte[input.length + 10];
+        System.arraycopy(input, 0, src, 7, input.length);
+        byte[] compressed = new byte[(int) Lzma.maxCompressedSize(input.length) + 5];
+
+        int clen = Lzma.compress(src, 7, input.length, compressed, 5, compressed.length - 5, Lzma.DEFAULT_FILTERS, Check.CRC64);
+        byte[] result = new byte[input.length + 3];
+        int dlen = Lzma.decompress(compressed, 5, clen, result, 3, input.length, UnsignedLong.MAX_VALUE);
+
+        assertThat(dlen, equalTo(input.length));
+        assertThat(Arrays.copyOfRange(result, 3, result.length), equalTo(input));
+    }
+
+    @Test
+    public void testDirectBuffers() throws IOException {
+        byte[] input = getTestResourceBytes("barack_obama.html");
+        ByteBuffer src = ByteBuffer.allocateDirect(input.length);
+        src.put(input).flip();
+        ByteBuffer compressed = ByteBuffer.allocateDirect((int) Lzma.maxCompressedSize(input.length));
+
+        int clen = Lzma.compress(src, compressed);
+        assertThat(src.remaining(), equalTo(0));
+        assertThat(compressed.position(), equalTo(clen));
+        compressed.flip();
+
+        ByteBuffer result = ByteBuffer.allocateDirect(input.length);
+        assertThat(Lzma.decompress(compressed, result), equalTo(input.length));
+        assertThat(compressed.remaining(), equalTo(0));
+
+        byte[] output = new byte[input.length];
+        result.flip();
+        result.get(output);
+        assertThat(output, equalTo(input));
+    }
+
+    @Test
+    public void testMaxCompressedSize() {
+        assertThat(Lzma.maxCompressedSize(0), greaterThan(0L));
+        assertThat(Lzma.maxCompressedSize(1 << 20), greaterThan((long) (1 << 20)));
+    }
+
+    @Test(expected = LzmaException.class)
+    public void testInsufficientOutput() throws IOException {
+        byte[] input = getTestResourceBytes("foobar.html");
+        byte[] compressed = Lzma.compress(input);
+        Lzma.decompress(compressed, 0, compressed.length, new byte[input.length - 1], 0, input.length - 1, UnsignedLong.MAX_VALUE);
+    }
+
+    @Test(expected = CorruptedInputException.class)
+    public void testTruncated() throws IOException {
+        byte[] compressed = Lzma.compress(getTestResourceBytes("foobar.html"));
+        Lzma.decompress(Arrays.copyOf(compressed, compressed.length - 20));
+    }
+
+    @Test(expected = FormatException.class)
+    public void testNotXz() throws IOException {
+        Lzma.decompress(getTestResourceBytes("foobar.html"));
+    }
+
+    @Test(expected = MemoryLimitException.class)
+    public void testMemoryLimit() throws IOException {
+        byte[] compressed = Lzma.compress(getTestResourceBytes("foobar.html"));
+        Lzma.decompress(compressed, UnsignedLong.ONE);
+    }
+
+    @Test
+    public void testHighlyCompressible() throws IOException {
+        // Expands far beyond the first output buffer allocated, which is grown to fit
+        byte[] zeros = new byte[4 << 20];
+        byte[] compressed = Lzma.compress(zeros);
+        assertThat(compressed.length * 16, lessThan(zeros.length));
+        assertThat(Lzma.decompress(compressed), equalTo(zeros));
+    }
+
+    @Test
+    public void testForgedIndex() throws IOException {
+        byte[] input = getTestResourceBytes("foobar.html");
+        byte[] compressed = Lzma.compress(input);
+
+        // Rewrite the index (with a valid CRC) to claim nearly 2 GiB of output
+        int footerOffset = compressed.length - XZFormat.FOOTER_SIZE;
+        int indexSize = (int) XZFormat.readIndexSize(compressed, footerOffset);
+        int indexOffset = footerOffset - indexSize;
+        List<XZFormat.Record> records = XZFormat.readIndex(compressed, indexOffset, indexSize);
+        byte[] index = XZFormat.index(Collections.singletonList(new XZFormat.Record(
+                records.get(0).getUnpaddedSize(),
+                Integer.MAX_VALUE - 16)));
+        ByteArrayOutputStream forged = new ByteArrayOutputStream();
+        forged.write(compressed, 0, indexOffset);
+        forged.write(index);
+        forged.write(XZFormat.streamFooter(Lzma.DEFAULT_CHECK, index.length));
+
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        long id = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(id);
+        try {
+            Lzma.decompress(forged.toByteArray());
+            fail("forged index decoded");
+        }
+        catch (LzmaException e) {
+            // The lie is only discovered on decoding, by which time little may have been allocated
+            assertThat(threads.getThreadAllocatedBytes(id) - allocated, lessThan(64L * 1024 * 1024));
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        return threads;
+    }
+
+    private byte[] getTestResourceBytes(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(String.format("/%s", name))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+}
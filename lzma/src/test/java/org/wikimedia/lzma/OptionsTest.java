@@ -1,10 +1,17 @@
 package org.wikimedia.lzma;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.assertThat;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import org.junit.Test;
 
+import com.google.common.io.ByteStreams;
+
 public class OptionsTest {
 
     @Test
@@ -12,4 +19,83 @@ public class OptionsTest {
         assertThat("preset 1 should have 1MB dict size", Options.fromPreset(1).dict_size, equalTo(1024 * 1024));
     }
 
+    @Test
+    public void testExtremePreset() {
+        Options normal = Options.fromPreset(6);
+        Options extreme = Options.fromPreset(6, true);
+        assertThat(extreme.dict_size, equalTo(normal.dict_size));
+        assertThat(extreme.nice_len, not(equalTo(normal.nice_len)));
+        assertThat(Options.builder().preset(6).extreme().build().nice_len, equalTo(extreme.nice_len));
+    }
+
+    @Test
+    public void testBuilder() {
+        Options options = Options.builder()
+                .preset(1)
+                .dictionarySize(64 * 1024)
+                .literalContextBits(1)
+                .literalPositionBits(3)
+                .positionBits(0)
+                .mode(Mode.NORMAL)
+                .matchFinder(MatchFinder.MF_BT4)
+                .niceLength(128)
+                .depth(32)
+                .build();
+        assertThat(options.dict_size, equalTo(64 * 1024));
+        assertThat(options.lc, equalTo(1));
+        assertThat(options.lp, equalTo(3));
+        assertThat(options.pb, equalTo(0));
+        assertThat(options.getMode(), is(Mode.NORMAL));
+        assertThat(options.getMatchFinder(), is(MatchFinder.MF_BT4));
+        assertThat(options.nice_len, equalTo(128));
+        assertThat(options.depth, equalTo(32));
+    }
+
+    @Test
+    public void testBuilderDefaultsToPreset() {
+        Options preset = Options.fromPreset(6);
+        Options built = Options.builder().build();
+        assertThat(built.dict_size, equalTo(preset.dict_size));
+        assertThat(built.getMode(), is(preset.getMode()));
+        assertThat(built.getMatchFinder(), is(preset.getMatchFinder()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLiteralBitsExceedLimit() {
+        Options.builder().literalContextBits(3).literalPositionBits(2).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNiceLengthBelowMatchFinderMinimum() {
+        Options.builder().matchFinder(MatchFinder.MF_HC4).niceLength(3).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNiceLengthOutOfRange() {
+        Options.builder().niceLength(274);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDictionarySizeOutOfRange() {
+        Options.builder().dictionarySize(1024);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, LzmaException {
+        byte[] input = getTestResourceBytes("san_antonio.html");
+        Options[] all = new Options[] {
+                Options.builder().preset(1).matchFinder(MatchFinder.MF_HC4).mode(Mode.FAST).build(),
+                Options.builder().preset(6).matchFinder(MatchFinder.MF_BT4).mode(Mode.NORMAL).niceLength(273).build() };
+        for (Options options : all) {
+            byte[] compressed = Lzma.compress(input, FilterChain.builder().lzma2(options).build(), Check.CRC32);
+            assertThat(Lzma.decompress(compressed), equalTo(input));
+        }
+    }
+
+    private byte[] getTestResourceBytes(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(String.format("/%s", name))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
 }
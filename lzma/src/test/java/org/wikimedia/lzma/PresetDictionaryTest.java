@@ -0,0 +1,87 @@
+package org.wikimedia.lzma;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class PresetDictionaryTest {
+
+    @Test
+    public void testRatio() throws IOException {
+        PresetDictionary dict = PresetDictionary.train(
+                Arrays.asList(getTestResourceBytes("san_antonio.html"), getTestResourceBytes("barack_obama.html")),
+                64 * 1024);
+        assertThat(dict.size(), lessThanOrEqualTo(64 * 1024));
+        assertThat(dict.size(), greaterThan(0));
+
+        byte[] input = Arrays.copyOf(getTestResourceBytes("foobar.html"), 8 * 1024);
+        FilterChain plain = FilterChain.lzma2(6);
+        FilterChain primed = FilterChain.builder().lzma2(Options.fromPreset(6).setPresetDictionary(dict)).build();
+
+        int plainSize = roundTrip(plain, input);
+        int primedSize = roundTrip(primed, input);
+        assertThat(primedSize, lessThan(plainSize));
+    }
+
+    @Test
+    public void testShared() throws IOException {
+        PresetDictionary dict = PresetDictionary.fromBytes(getTestResourceBytes("san_antonio.html"), 0, 32 * 1024);
+        Options options = Options.fromPreset(1).setPresetDictionary(dict);
+        FilterChain lzma1 = FilterChain.builder().lzma1(options).build();
+        FilterChain lzma2 = FilterChain.builder().lzma2(options).build();
+
+        assertThat(lzma2.getLzmaOptions().getPresetDictionary(), equalTo(dict));
+        roundTrip(lzma1, getTestResourceBytes("foobar.html"));
+        roundTrip(lzma2, getTestResourceBytes("foobar.html"));
+    }
+
+    @Test
+    public void testSingleSample() {
+        byte[] sample = new byte[100];
+        Arrays.fill(sample, (byte) 'a');
+        sample[99] = 'b';
+        PresetDictionary dict = PresetDictionary.train(Arrays.asList(sample), 10);
+        assertThat(dict.toByteArray(), equalTo(Arrays.copyOfRange(sample, 90, 100)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequiresRaw() throws IOException {
+        PresetDictionary dict = PresetDictionary.fromBytes(getTestResourceBytes("foobar.html"));
+        new Encoder(FilterChain.builder().lzma2(Options.fromPreset(1).setPresetDictionary(dict)).build(), Check.NONE);
+    }
+
+    private int roundTrip(FilterChain chain, byte[] input) throws IOException {
+        Encoder encoder = new Encoder(Format.RAW, chain, 64 * 1024);
+        Decoder decoder = new Decoder(Format.RAW, chain);
+        byte[] compressed = new byte[input.length * 2];
+        encoder.setInput(input);
+        encoder.finish();
+        int len = encoder.encode(compressed);
+        encoder.end();
+
+        byte[] output = new byte[input.length];
+        decoder.setInput(compressed, 0, len);
+        decoder.finish();
+        assertThat(decoder.decode(output), equalTo(input.length));
+        assertThat(output, equalTo(input));
+        decoder.end();
+        return len;
+    }
+
+    private byte[] getTestResourceBytes(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(String.format("/%s", name))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+}
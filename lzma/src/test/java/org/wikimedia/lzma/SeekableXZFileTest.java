@@ -0,0 +1,112 @@
+package org.wikimedia.lzma;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wikimedia.lzma.parallel.ParallelEncoder;
+
+import com.google.common.io.ByteStreams;
+
+public class SeekableXZFileTest {
+
+    private static final int BLOCK_SIZE = 16 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRandomAccess() throws IOException {
+        byte[] input = getTestResourceBytes("barack_obama.html");
+        Path path = write(encode(input));
+
+        try (SeekableXZFile file = SeekableXZFile.open(path)) {
+            assertThat(file.size(), equalTo((long) input.length));
+            assertThat(file.getBlockCount(), equalTo((long) (input.length + BLOCK_SIZE - 1) / BLOCK_SIZE));
+            assertThat(file.getStreamCount(), equalTo(1));
+
+            Random random = new Random(42);
+            for (int i = 0; i < 100; i++) {
+                int position = random.nextInt(input.length);
+                int len = Math.min(random.nextInt(3 * BLOCK_SIZE), input.length - position);
+                byte[] buf = new byte[len];
+                file.readFully(position, buf, 0, len);
+                assertThat(buf, equalTo(Arrays.copyOfRange(input, position, position + len)));
+            }
+            assertThat(file.read(input.length, new byte[1], 0, 1), equalTo(-1));
+        }
+    }
+
+    @Test
+    public void testLocate() throws IOException {
+        byte[] input = getTestResourceBytes("barack_obama.html");
+        Path path = write(encode(input));
+
+        try (SeekableXZFile file = SeekableXZFile.open(path)) {
+            SeekableXZFile.Block block = file.locate(BLOCK_SIZE * 2 + 1);
+            assertThat(block.getNumber(), equalTo(3L));
+            assertThat(block.getUncompressedOffset(), equalTo(BLOCK_SIZE * 2L));
+            assertThat(block.getUncompressedSize(), equalTo((long) BLOCK_SIZE));
+            assertThat(file.decode(block), equalTo(Arrays.copyOfRange(input, BLOCK_SIZE * 2, BLOCK_SIZE * 3)));
+        }
+    }
+
+    @Test
+    public void testConcatenatedStreams() throws IOException {
+        byte[] first = getTestResourceBytes("foobar.html");
+        byte[] second = getTestResourceBytes("san_antonio.html");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(Lzma.compress(first, FilterChain.lzma2(1), Check.CRC32));
+        out.write(new byte[8]);
+        out.write(encode(second));
+        out.write(new byte[4]);
+        Path path = write(out.toByteArray());
+
+        byte[] input = new byte[first.length + second.length];
+        System.arraycopy(first, 0, input, 0, first.length);
+        System.arraycopy(second, 0, input, first.length, second.length);
+
+        try (SeekableXZFile file = SeekableXZFile.open(path)) {
+            assertThat(file.getStreamCount(), equalTo(2));
+            assertThat(file.size(), equalTo((long) input.length));
+            byte[] all = new byte[input.length];
+            file.readFully(0, all, 0, all.length);
+            assertThat(all, equalTo(input));
+        }
+    }
+
+    @Test(expected = LzmaException.class)
+    public void testNotXZ() throws IOException {
+        SeekableXZFile.open(write(getTestResourceBytes("foobar.html"))).close();
+    }
+
+    private Path write(byte[] data) throws IOException {
+        Path path = this.folder.newFile().toPath();
+        Files.write(path, data);
+        return path;
+    }
+
+    private byte[] encode(byte[] input) throws IOException {
+        try (ParallelEncoder encoder = new ParallelEncoder(new ForkJoinPool(2), BLOCK_SIZE, 1, Check.CRC64)) {
+            return encoder.encode(input);
+        }
+    }
+
+    private byte[] getTestResourceBytes(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(String.format("/%s", name))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+}
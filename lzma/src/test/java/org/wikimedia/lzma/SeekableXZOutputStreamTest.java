@@ -0,0 +1,66 @@
+package org.wikimedia.lzma;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteStreams;
+
+public class SeekableXZOutputStreamTest {
+
+    private static final int BLOCK_SIZE = 16 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBlockBoundaries() throws IOException {
+        byte[] input = getTestResourceBytes("barack_obama.html");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<SeekableXZOutputStream.Block> blocks;
+        try (SeekableXZOutputStream xz = new SeekableXZOutputStream(out, 1, Check.CRC32, BLOCK_SIZE)) {
+            xz.write(input, 0, 1000);
+            xz.endBlock();
+            xz.endBlock();
+            xz.write(input, 1000, input.length - 1000);
+            xz.finish();
+            blocks = xz.getBlocks();
+        }
+
+        assertThat(blocks.get(0).getUncompressedSize(), equalTo(1000L));
+        assertThat(blocks.get(1).getUncompressedOffset(), equalTo(1000L));
+        assertThat(blocks.get(1).getUncompressedSize(), equalTo((long) BLOCK_SIZE));
+        assertThat(blocks.size(), equalTo(1 + (input.length - 1000 + BLOCK_SIZE - 1) / BLOCK_SIZE));
+
+        Path path = this.folder.newFile().toPath();
+        Files.write(path, out.toByteArray());
+        try (SeekableXZFile file = SeekableXZFile.open(path)) {
+            assertThat(file.getBlockCount(), equalTo((long) blocks.size()));
+            for (SeekableXZOutputStream.Block expected : blocks) {
+                SeekableXZFile.Block actual = file.locate(expected.getUncompressedOffset());
+                assertThat(actual.getCompressedOffset(), equalTo(expected.getCompressedOffset()));
+                assertThat(actual.getTotalSize(), equalTo(expected.getTotalSize()));
+                assertThat(actual.getUncompressedOffset(), equalTo(expected.getUncompressedOffset()));
+                assertThat(actual.getUncompressedSize(), equalTo(expected.getUncompressedSize()));
+            }
+        }
+        assertThat(Lzma.decompress(out.toByteArray()), equalTo(input));
+    }
+
+    private byte[] getTestResourceBytes(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(String.format("/%s", name))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package org.wikimedia.lzma;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class XZStreamTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] inData = getTestResourceBytes("barack_obama.html");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        try (XZOutputStream out = new XZOutputStream(compressed, 1)) {
+            // Mix single-byte writes, writes smaller than the window, and writes larger than it.
+            out.write(inData[0]);
+            int pos = 1;
+            int[] sizes = { 777, 200 * 1024, 1 };
+            for (int i = 0; pos < inData.length; i++) {
+                int len = Math.min(sizes[i % sizes.length], inData.length - pos);
+                out.write(inData, pos, len);
+                pos += len;
+            }
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream in = new XZInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            byte[] buf = new byte[1000];
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                result.write(buf, 0, len);
+            }
+        }
+
+        assertThat(result.toByteArray(), equalTo(inData));
+    }
+
+    @Test
+    public void testFlush() throws IOException {
+        byte[] hello = "hello".getBytes("UTF-8");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        XZOutputStream out = new XZOutputStream(compressed);
+        out.write(hello);
+        out.flush();
+
+        // Everything written prior to the flush is decodable from what has been output so far.
+        byte[] result = new byte[hello.length];
+        try (InputStream in = new XZInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            ByteStreams.readFully(in, result);
+        }
+        assertThat(result, equalTo(hello));
+
+        out.close();
+    }
+
+    @Test(expected = CorruptedInputException.class)
+    public void testTruncated() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (XZOutputStream out = new XZOutputStream(compressed)) {
+            out.write(getTestResourceBytes("foobar.html"));
+        }
+        byte[] data = compressed.toByteArray();
+        try (InputStream in = new XZInputStream(new ByteArrayInputStream(data, 0, data.length / 2))) {
+            ByteStreams.toByteArray(in);
+        }
+    }
+
+    @Test
+    public void testSkip() throws IOException {
+        byte[] inData = getTestResourceBytes("foobar.html");
+        InputStream in = new XZInputStream(new ByteArrayInputStream(Lzma.compress(inData)));
+        assertThat(in.skip(-1), equalTo(0L));
+        assertThat(in.skip(100), equalTo(100L));
+        assertThat(in.read(), equalTo(inData[100] & 0xff));
+        in.close();
+        try {
+            in.skip(1);
+            fail("skipped on a closed stream");
+        }
+        catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private byte[] getTestResourceBytes(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(String.format("/%s", name))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.wikimedia.lzma.parallel;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wikimedia.lzma.Check;
+import org.wikimedia.lzma.CorruptedInputException;
+import org.wikimedia.lzma.Encoder;
+import org.wikimedia.lzma.Options;
+import org.wikimedia.lzma.XZInputStream;
+
+import com.google.common.io.ByteStreams;
+
+public class ParallelTest {
+    private ForkJoinPool pool;
+    private ParallelEncoder encoder;
+    private ParallelDecoder decoder;
+
+    @Before
+    public void setUp() {
+        this.pool = new ForkJoinPool(4);
+        this.encoder = new ParallelEncoder(this.pool, 64 * 1024, 1, Check.CRC32);
+        this.decoder = new ParallelDecoder(this.pool);
+    }
+
+    @After
+    public void tearDown() {
+        this.encoder.close();
+        this.decoder.close();
+        this.pool.shutdown();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (String name : new String[] { "foobar.html", "san_antonio.html", "barack_obama.html" }) {
+            byte[] inData = getTestResourceBytes(name);
+            byte[] compressed = this.encoder.encode(inData);
+            assertThat(this.decoder.decode(compressed), equalTo(inData));
+
+            // The output is a standard .xz stream
+            try (InputStream in = new XZInputStream(new ByteArrayInputStream(compressed))) {
+                assertThat(ByteStreams.toByteArray(in), equalTo(inData));
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        byte[] compressed = this.encoder.encode(new byte[0]);
+        assertThat(this.decoder.decode(compressed).length, equalTo(0));
+    }
+
+    @Test
+    public void testDecodeMultithreadedEncoderOutput() throws IOException {
+        byte[] inData = getTestResourceBytes("barack_obama.html");
+        Encoder mt = new Encoder(Options.fromPreset(1), Check.CRC64, 2, 256 * 1024, 0);
+        byte[] compressed = new byte[inData.length];
+        mt.setInput(inData);
+        mt.finish();
+        int len = mt.encode(compressed);
+        mt.end();
+
+        assertThat(this.decoder.decode(compressed, 0, len), equalTo(inData));
+    }
+
+    @Test(expected = CorruptedInputException.class)
+    public void testCorrupt() throws IOException {
+        byte[] compressed = this.encoder.encode(getTestResourceBytes("san_antonio.html"));
+        compressed[compressed.length / 3] ^= 0x55;
+        this.decoder.decode(compressed);
+    }
+
+    @Test(expected = CorruptedInputException.class)
+    public void testTruncated() throws IOException {
+        byte[] compressed = this.encoder.encode(getTestResourceBytes("san_antonio.html"));
+        this.decoder.decode(Arrays.copyOf(compressed, compressed.length - 1));
+    }
+
+    private byte[] getTestResourceBytes(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(String.format("/%s", name))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+}
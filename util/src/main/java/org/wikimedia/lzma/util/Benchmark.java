@@ -3,7 +3,6 @@ package org.wikimedia.lzma.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Arrays;
 import java.util.Iterator;
 
 import org.kohsuke.args4j.CmdLineException;
@@ -13,6 +12,7 @@ import org.wikimedia.lzma.Decoder;
 import org.wikimedia.lzma.Encoder;
 
 import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
 
 public class Benchmark implements AutoCloseable {
 
@@ -189,8 +189,10 @@ public class Benchmark implements AutoCloseable {
     }
 
     void warmUpDecoder(int runs) throws IOException {
+        // Decoding requires compressed input
+        encode();
         for (int i = 0; i < runs; i++) {
-            encode();
+            decode();
         }
     }
 
@@ -221,7 +223,7 @@ public class Benchmark implements AutoCloseable {
         }
     }
 
-    Result decode() {
+    Result decode() throws IOException {
         try {
             long start = System.nanoTime();
             this.decoder.setInput(this.compressedBuffer, 0, this.compressedSize);
@@ -242,13 +244,7 @@ public class Benchmark implements AutoCloseable {
     }
 
     static byte[] readInput(InputStream input) throws IOException {
-        byte[] b = new byte[1 * 1024 * 1024];
-        int size, total = 0;
-        while ((size = System.in.read(b, 0, b.length)) != -1) {
-            b = Arrays.copyOf(b, (int) (b.length * 1.75));
-            total += size;
-        }
-        return Arrays.copyOf(b, total);
+        return ByteStreams.toByteArray(input);
     }
 
     static void printf(String format, Object... args) {